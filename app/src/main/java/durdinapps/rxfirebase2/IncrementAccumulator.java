@@ -0,0 +1,151 @@
+package durdinapps.rxfirebase2;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.Completable;
+import io.reactivex.CompletableSource;
+import io.reactivex.Scheduler;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.Consumer;
+import io.reactivex.subjects.CompletableSubject;
+
+/**
+ * Sums increments per key in memory and writes the sums together, once the interval since the first pending
+ * increment is over, once the threshold of pending increments is reached or when flushed. Increments only touch
+ * the atomic counter of their key, so concurrent callers never block each other.
+ * <p>
+ * The sums are written in chunks, each one in a single atomic operation. Only the sums of a failed chunk are added
+ * back to their counters and sent by the next flush, and once a flush starts every chunk is written to the end even
+ * if the flush is disposed or another chunk fails, so an increment is never sent twice.
+ */
+abstract class IncrementAccumulator<K> {
+
+    private final ConcurrentHashMap<K, AtomicLong> counters = new ConcurrentHashMap<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final long interval;
+    private final TimeUnit unit;
+    private final int threshold;
+    private final Scheduler scheduler;
+
+    IncrementAccumulator(long interval, @NonNull TimeUnit unit, int threshold, @NonNull Scheduler scheduler) {
+        if (threshold <= 0) throw new IllegalArgumentException("threshold > 0 required but it was " + threshold);
+        this.interval = interval;
+        this.unit = unit;
+        this.threshold = threshold;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Write the given sums, one of the chunks of a flush, in a single atomic operation.
+     */
+    @NonNull
+    abstract Completable write(@NonNull Map<K, Long> deltas);
+
+    /**
+     * Split the sums of a flush in the chunks written by {@link #write(Map)}, all of them in one chunk by default.
+     */
+    @NonNull
+    List<Map<K, Long>> chunks(@NonNull Map<K, Long> deltas) {
+        return Collections.singletonList(deltas);
+    }
+
+    void add(@NonNull K key, long delta) {
+        if (delta == 0) return;
+        accumulate(key, delta);
+        if (pending.incrementAndGet() >= threshold) {
+            flushInBackground();
+        } else {
+            schedule();
+        }
+    }
+
+    /**
+     * Writes the pending sums without waiting for the interval or the threshold.
+     *
+     * @return a {@link Completable} which completes when the sums are written, right away if there is none, or fails
+     * once every chunk is done if any of them failed.
+     */
+    @NonNull
+    public Completable flush() {
+        return Completable.defer(new Callable<CompletableSource>() {
+            @Override
+            public CompletableSource call() {
+                pending.set(0);
+                final Map<K, Long> deltas = new LinkedHashMap<>();
+                for (Map.Entry<K, AtomicLong> counter : counters.entrySet()) {
+                    long delta = counter.getValue().getAndSet(0);
+                    if (delta != 0) deltas.put(counter.getKey(), delta);
+                }
+                if (deltas.isEmpty()) return Completable.complete();
+                List<Completable> results = new ArrayList<>();
+                for (final Map<K, Long> chunk : chunks(deltas)) {
+                    CompletableSubject result = CompletableSubject.create();
+                    // Deferred so a write which throws while being built still gives its sums back.
+                    Completable.defer(new Callable<CompletableSource>() {
+                        @Override
+                        public CompletableSource call() {
+                            return write(chunk);
+                        }
+                    }).doOnError(new Consumer<Throwable>() {
+                        @Override
+                        public void accept(Throwable throwable) {
+                            for (Map.Entry<K, Long> delta : chunk.entrySet()) {
+                                accumulate(delta.getKey(), delta.getValue());
+                            }
+                            schedule();
+                        }
+                    }).subscribe(result);
+                    results.add(result);
+                }
+                return Completable.mergeDelayError(results);
+            }
+        });
+    }
+
+    private void accumulate(K key, long delta) {
+        AtomicLong counter = counters.get(key);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = counters.putIfAbsent(key, created);
+            if (counter == null) counter = created;
+        }
+        counter.addAndGet(delta);
+    }
+
+    private void schedule() {
+        if (!scheduled.compareAndSet(false, true)) return;
+        scheduler.scheduleDirect(new Runnable() {
+            @Override
+            public void run() {
+                scheduled.set(false);
+                flushInBackground();
+            }
+        }, interval, unit);
+    }
+
+    private void flushInBackground() {
+        flush().subscribe(new Action() {
+            @Override
+            public void run() {
+            }
+        }, new Consumer<Throwable>() {
+            @Override
+            public void accept(Throwable throwable) {
+                // The sums are back in their counters and the next flush is scheduled.
+            }
+        });
+    }
+}
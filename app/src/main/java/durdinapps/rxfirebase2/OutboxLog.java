@@ -0,0 +1,329 @@
+package durdinapps.rxfirebase2;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file of the writes of a {@link RxFirestoreOutbox}. Each write is appended when it is queued and a
+ * done record with its id when it is acknowledged or rejected, so the pending writes are the ones without done
+ * record. The file is compacted when it is opened and emptied whenever nothing is pending.
+ * <p>
+ * Every record starts with its length and a CRC32 of its content. A failed append is truncated away, so only a
+ * crash can leave a record cut, which then ends the file and is dropped on open. Any other record which can't be
+ * read is corrupt: it is skipped and reported, and the file is kept next to the log before compacting it. Values
+ * can be null, booleans, integral and floating point numbers, strings, lists and maps with string keys of those.
+ */
+final class OutboxLog {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int HEADER_LENGTH = 8;
+
+    private static final byte RECORD_WRITE = 1;
+    private static final byte RECORD_DONE = 2;
+
+    private static final byte VALUE_NULL = 0;
+    private static final byte VALUE_FALSE = 1;
+    private static final byte VALUE_TRUE = 2;
+    private static final byte VALUE_LONG = 3;
+    private static final byte VALUE_DOUBLE = 4;
+    private static final byte VALUE_STRING = 5;
+    private static final byte VALUE_LIST = 6;
+    private static final byte VALUE_MAP = 7;
+
+    private final File file;
+    private FileOutputStream output;
+    private long length;
+
+    OutboxLog(@NonNull File file) {
+        this.file = file;
+    }
+
+    /**
+     * Read the pending writes and rewrite the file with only them. The corrupt records found are added to the given
+     * list, and the file as it was read is kept with the {@code .corrupt} suffix.
+     *
+     * @return the pending writes in the order they were appended.
+     */
+    @NonNull
+    synchronized List<Write> open(@NonNull List<IOException> corruption) throws IOException {
+        Map<Long, Write> pending = new LinkedHashMap<>();
+        int corrupt = corruption.size();
+        if (file.exists()) {
+            byte[] bytes = readFile();
+            int offset = 0;
+            while (bytes.length - offset >= HEADER_LENGTH) {
+                ByteBuffer header = ByteBuffer.wrap(bytes, offset, HEADER_LENGTH);
+                int recordLength = header.getInt();
+                int checksum = header.getInt();
+                if (recordLength < 0) {
+                    corruption.add(new IOException("Corrupt record length at " + offset + " of " + file
+                        + ", the rest of the file can't be read"));
+                    break;
+                }
+                int start = offset + HEADER_LENGTH;
+                // The last record was cut, the records before it are complete.
+                if (recordLength > bytes.length - start) break;
+                offset = start + recordLength;
+                if (checksumOf(bytes, start, recordLength) != checksum) {
+                    corruption.add(new IOException("Corrupt record at " + (start - HEADER_LENGTH) + " of " + file));
+                    continue;
+                }
+                try {
+                    DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes, start, recordLength));
+                    byte record = input.readByte();
+                    long id = input.readLong();
+                    if (record == RECORD_WRITE) {
+                        pending.put(id, readWrite(id, input));
+                    } else if (record == RECORD_DONE) {
+                        pending.remove(id);
+                    } else {
+                        throw new IOException("Unknown record type " + record);
+                    }
+                } catch (IOException e) {
+                    IOException error = new IOException("Corrupt record at " + (start - HEADER_LENGTH) + " of " + file);
+                    error.initCause(e);
+                    corruption.add(error);
+                }
+            }
+        }
+
+        File compacted = new File(file.getPath() + ".tmp");
+        FileOutputStream compactedOutput = new FileOutputStream(compacted);
+        try {
+            for (Write write : pending.values()) {
+                compactedOutput.write(recordOf(write));
+            }
+            compactedOutput.getFD().sync();
+        } finally {
+            compactedOutput.close();
+        }
+        if (corruption.size() > corrupt) {
+            File kept = new File(file.getPath() + ".corrupt");
+            if (kept.exists() && !kept.delete()) throw new IOException("Can't replace " + kept);
+            if (!file.renameTo(kept)) throw new IOException("Can't keep " + kept);
+        }
+        if (!compacted.renameTo(file)) throw new IOException("Can't replace " + file);
+        output = new FileOutputStream(file, true);
+        length = file.length();
+        return new ArrayList<>(pending.values());
+    }
+
+    /**
+     * @throws IllegalArgumentException if the data holds a value which can't be written.
+     */
+    synchronized void append(@NonNull Write write) throws IOException {
+        appendRecord(recordOf(write));
+    }
+
+    synchronized void appendDone(long id) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(9);
+        DataOutputStream record = new DataOutputStream(bytes);
+        record.writeByte(RECORD_DONE);
+        record.writeLong(id);
+        appendRecord(frame(bytes.toByteArray()));
+    }
+
+    /**
+     * Empty the file, only once nothing is pending.
+     */
+    synchronized void clear() throws IOException {
+        output.close();
+        output = new FileOutputStream(file, false);
+        length = 0;
+    }
+
+    /**
+     * Append the given record, truncating the file back to its last complete record if it can't be written, so
+     * the following records aren't appended after a partial one.
+     */
+    private void appendRecord(byte[] record) throws IOException {
+        FileChannel channel = output.getChannel();
+        if (channel.size() != length) channel.truncate(length);
+        try {
+            output.write(record);
+            output.getFD().sync();
+        } catch (IOException e) {
+            try {
+                channel.truncate(length);
+            } catch (IOException ignored) {
+                // Truncated again before the next record.
+            }
+            throw e;
+        }
+        length += record.length;
+    }
+
+    private byte[] readFile() throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            input.readFully(bytes);
+            return bytes;
+        } finally {
+            input.close();
+        }
+    }
+
+    private static byte[] frame(byte[] content) {
+        return ByteBuffer.allocate(HEADER_LENGTH + content.length)
+            .putInt(content.length)
+            .putInt(checksumOf(content, 0, content.length))
+            .put(content)
+            .array();
+    }
+
+    private static int checksumOf(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static byte[] recordOf(Write write) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(new BufferedOutputStream(bytes));
+        record.writeByte(RECORD_WRITE);
+        record.writeLong(write.id);
+        record.writeByte(write.type);
+        writeString(record, write.path);
+        writeValue(record, write.data);
+        record.flush();
+        return frame(bytes.toByteArray());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Write readWrite(long id, DataInputStream input) throws IOException {
+        byte type = input.readByte();
+        String path = readString(input);
+        Object data = readValue(input);
+        return new Write(id, type, path, (Map<String, Object>) data);
+    }
+
+    private static void writeValue(DataOutputStream output, Object value) throws IOException {
+        if (value == null) {
+            output.writeByte(VALUE_NULL);
+        } else if (value instanceof Boolean) {
+            output.writeByte((Boolean) value ? VALUE_TRUE : VALUE_FALSE);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short
+            || value instanceof Byte) {
+            output.writeByte(VALUE_LONG);
+            output.writeLong(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            output.writeByte(VALUE_DOUBLE);
+            output.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof String) {
+            output.writeByte(VALUE_STRING);
+            writeString(output, (String) value);
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            output.writeByte(VALUE_LIST);
+            output.writeInt(list.size());
+            for (Object item : list) {
+                writeValue(output, item);
+            }
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            output.writeByte(VALUE_MAP);
+            output.writeInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                if (!(entry.getKey() instanceof String))
+                    throw new IllegalArgumentException("Map keys must be strings but it was " + entry.getKey());
+                writeString(output, (String) entry.getKey());
+                writeValue(output, entry.getValue());
+            }
+        } else {
+            throw new IllegalArgumentException("Unsupported value " + value.getClass().getName());
+        }
+    }
+
+    private static Object readValue(DataInputStream input) throws IOException {
+        byte type = input.readByte();
+        switch (type) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_FALSE:
+                return false;
+            case VALUE_TRUE:
+                return true;
+            case VALUE_LONG:
+                return input.readLong();
+            case VALUE_DOUBLE:
+                return input.readDouble();
+            case VALUE_STRING:
+                return readString(input);
+            case VALUE_LIST: {
+                int size = input.readInt();
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(input));
+                }
+                return list;
+            }
+            case VALUE_MAP: {
+                int size = input.readInt();
+                Map<String, Object> map = new LinkedHashMap<>();
+                for (int i = 0; i < size; i++) {
+                    String key = readString(input);
+                    map.put(key, readValue(input));
+                }
+                return map;
+            }
+            default:
+                throw new IOException("Unknown value type " + type);
+        }
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Write of a document kept in the log.
+     */
+    static final class Write {
+        static final byte SET = 1;
+        static final byte MERGE = 2;
+        static final byte UPDATE = 3;
+        static final byte DELETE = 4;
+
+        final long id;
+        final byte type;
+        final String path;
+        @Nullable
+        final Map<String, Object> data;
+
+        Write(long id, byte type, @NonNull String path, @Nullable Map<String, Object> data) {
+            this.id = id;
+            this.type = type;
+            this.path = path;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package durdinapps.rxfirebase2;
+
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import io.reactivex.Flowable;
+import io.reactivex.Single;
+import io.reactivex.SingleObserver;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.disposables.Disposables;
+
+/**
+ * {@link Flowable} of pages which walks a cursor taken from the previous page. A page is only loaded once it is
+ * requested or to keep up to prefetch pages ready after the first request, so the whole source is never held in
+ * memory at once. An empty page or a page without next cursor completes the stream.
+ */
+final class PaginatedFlowable<C, T> extends Flowable<List<T>> {
+
+    private final PageLoader<C, T> loader;
+    private final int prefetch;
+
+    /**
+     * @param loader   loader of each page.
+     * @param prefetch number of pages loaded ahead of the requests, one after another as each cursor is known.
+     */
+    PaginatedFlowable(@NonNull PageLoader<C, T> loader, int prefetch) {
+        this.loader = loader;
+        this.prefetch = prefetch;
+    }
+
+    @Override
+    protected void subscribeActual(Subscriber<? super List<T>> subscriber) {
+        subscriber.onSubscribe(new PageSubscription<>(subscriber, loader, prefetch));
+    }
+
+    interface PageLoader<C, T> {
+
+        /**
+         * @param cursor the cursor of the previous page, or null for the first page.
+         * @return a {@link Single} which loads the page after the given cursor.
+         */
+        @NonNull
+        Single<Page<C, T>> load(@Nullable C cursor);
+    }
+
+    static final class Page<C, T> {
+        final List<T> items;
+        @Nullable
+        final C next;
+
+        /**
+         * @param items items of the page.
+         * @param next  cursor to load the following page, or null if this is the last page.
+         */
+        Page(@NonNull List<T> items, @Nullable C next) {
+            this.items = items;
+            this.next = next;
+        }
+    }
+
+    private static final class PageSubscription<C, T> extends AtomicInteger implements Subscription {
+
+        private static final Disposable CANCELLED = Disposables.disposed();
+
+        private final Subscriber<? super List<T>> downstream;
+        private final PageLoader<C, T> loader;
+        private final int prefetch;
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicReference<Disposable> current = new AtomicReference<>();
+        private final Queue<Page<C, T>> ready = new ConcurrentLinkedQueue<>();
+
+        private boolean started;
+        private boolean finished;
+        private volatile C cursor;
+        private volatile boolean loading;
+        private volatile boolean exhausted;
+        private volatile Throwable error;
+        private volatile Throwable invalidRequest;
+        private volatile boolean cancelled;
+
+        PageSubscription(Subscriber<? super List<T>> downstream, PageLoader<C, T> loader, int prefetch) {
+            this.downstream = downstream;
+            this.loader = loader;
+            this.prefetch = prefetch;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("n > 0 required but it was " + n);
+            } else {
+                while (true) {
+                    long previous = requested.get();
+                    long next = previous + n < 0 ? Long.MAX_VALUE : previous + n;
+                    if (previous == Long.MAX_VALUE || requested.compareAndSet(previous, next)) break;
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            cancelLoad();
+            drain();
+        }
+
+        private void drain() {
+            if (getAndIncrement() != 0) return;
+            int missed = 1;
+            while (true) {
+                if (cancelled) {
+                    ready.clear();
+                    return;
+                }
+                if (finished) return;
+                if (invalidRequest != null) {
+                    cancelLoad();
+                    finish(invalidRequest);
+                    return;
+                }
+                Page<C, T> page = ready.peek();
+                if (page != null && page.items.isEmpty()) {
+                    finish(null);
+                    return;
+                }
+                if (page != null && requested.get() > 0) {
+                    ready.poll();
+                    downstream.onNext(page.items);
+                    produced();
+                    if (page.next == null) {
+                        finish(null);
+                        return;
+                    }
+                    continue;
+                }
+                Throwable throwable = error;
+                if (page == null && throwable != null) {
+                    finish(throwable);
+                    return;
+                }
+                int buffered = ready.size();
+                if (!loading && !exhausted && throwable == null
+                    && (buffered < requested.get() || (started && buffered < prefetch))) {
+                    load();
+                    continue;
+                }
+                missed = addAndGet(-missed);
+                if (missed == 0) break;
+            }
+        }
+
+        private void cancelLoad() {
+            Disposable loading = current.getAndSet(CANCELLED);
+            if (loading != null) loading.dispose();
+        }
+
+        private void produced() {
+            while (true) {
+                long previous = requested.get();
+                if (previous == Long.MAX_VALUE || requested.compareAndSet(previous, previous - 1)) return;
+            }
+        }
+
+        private void finish(@Nullable Throwable throwable) {
+            finished = true;
+            ready.clear();
+            if (throwable != null) {
+                downstream.onError(throwable);
+            } else {
+                downstream.onComplete();
+            }
+        }
+
+        private void load() {
+            loading = true;
+            started = true;
+            loader.load(cursor).subscribe(new SingleObserver<Page<C, T>>() {
+                @Override
+                public void onSubscribe(Disposable d) {
+                    while (true) {
+                        Disposable previous = current.get();
+                        if (previous == CANCELLED) {
+                            d.dispose();
+                            return;
+                        }
+                        if (current.compareAndSet(previous, d)) return;
+                    }
+                }
+
+                @Override
+                public void onSuccess(Page<C, T> page) {
+                    cursor = page.next;
+                    exhausted = page.next == null || page.items.isEmpty();
+                    ready.offer(page);
+                    loading = false;
+                    drain();
+                }
+
+                @Override
+                public void onError(Throwable e) {
+                    error = e;
+                    loading = false;
+                    drain();
+                }
+            });
+        }
+    }
+}
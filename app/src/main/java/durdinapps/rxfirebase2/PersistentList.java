@@ -0,0 +1,199 @@
+package durdinapps.rxfirebase2;
+
+
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Immutable list kept in a persistent tree ordered by position. Inserting, removing or replacing an element returns
+ * a new list in O(log n) expected time and memory: only the path to the element is copied and the rest is shared
+ * with this list, which stays unchanged.
+ */
+final class PersistentList<T> extends AbstractList<T> {
+
+    private static final PersistentList<?> EMPTY = new PersistentList<>(null);
+    private static final Random RANDOM = new Random();
+
+    private final Node<T> root;
+
+    private PersistentList(Node<T> root) {
+        this.root = root;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> PersistentList<T> empty() {
+        return (PersistentList<T>) EMPTY;
+    }
+
+    /**
+     * @return a list with the given value inserted at the given position.
+     */
+    @NonNull
+    PersistentList<T> plus(int index, T value) {
+        if (index < 0 || index > size()) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        return new PersistentList<>(insert(root, index, new Node<>(value, RANDOM.nextInt(), null, null)));
+    }
+
+    /**
+     * @return a list without the value at the given position.
+     */
+    @NonNull
+    PersistentList<T> minus(int index) {
+        checkIndex(index);
+        return new PersistentList<>(remove(root, index));
+    }
+
+    /**
+     * @return a list with the value at the given position replaced by the given one.
+     */
+    @NonNull
+    PersistentList<T> with(int index, T value) {
+        checkIndex(index);
+        return new PersistentList<>(replace(root, index, value));
+    }
+
+    @Override
+    public T get(int index) {
+        checkIndex(index);
+        Node<T> node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node.value;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return size(root);
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        final Deque<Node<T>> stack = new ArrayDeque<>();
+        for (Node<T> node = root; node != null; node = node.left) stack.push(node);
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return !stack.isEmpty();
+            }
+
+            @Override
+            public T next() {
+                if (stack.isEmpty()) throw new NoSuchElementException();
+                Node<T> node = stack.pop();
+                for (Node<T> child = node.right; child != null; child = child.left) stack.push(child);
+                return node.value;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size()) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+    }
+
+    private static <T> Node<T> insert(Node<T> node, int index, Node<T> inserted) {
+        if (node == null) return inserted;
+        if (inserted.priority > node.priority) {
+            Node<T>[] parts = split(node, index);
+            return inserted.with(parts[0], parts[1]);
+        }
+        int leftSize = size(node.left);
+        if (index <= leftSize) {
+            return node.with(insert(node.left, index, inserted), node.right);
+        } else {
+            return node.with(node.left, insert(node.right, index - leftSize - 1, inserted));
+        }
+    }
+
+    private static <T> Node<T> remove(Node<T> node, int index) {
+        int leftSize = size(node.left);
+        if (index < leftSize) {
+            return node.with(remove(node.left, index), node.right);
+        } else if (index > leftSize) {
+            return node.with(node.left, remove(node.right, index - leftSize - 1));
+        } else {
+            return merge(node.left, node.right);
+        }
+    }
+
+    private static <T> Node<T> replace(Node<T> node, int index, T value) {
+        int leftSize = size(node.left);
+        if (index < leftSize) {
+            return node.with(replace(node.left, index, value), node.right);
+        } else if (index > leftSize) {
+            return node.with(node.left, replace(node.right, index - leftSize - 1, value));
+        } else {
+            return new Node<>(value, node.priority, node.left, node.right);
+        }
+    }
+
+    /**
+     * Split the given tree in its first count nodes and the rest.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> Node<T>[] split(Node<T> node, int count) {
+        if (node == null) return new Node[]{null, null};
+        if (size(node.left) < count) {
+            Node<T>[] parts = split(node.right, count - size(node.left) - 1);
+            parts[0] = node.with(node.left, parts[0]);
+            return parts;
+        } else {
+            Node<T>[] parts = split(node.left, count);
+            parts[1] = node.with(parts[1], node.right);
+            return parts;
+        }
+    }
+
+    private static <T> Node<T> merge(Node<T> left, Node<T> right) {
+        if (left == null) return right;
+        if (right == null) return left;
+        if (left.priority > right.priority) {
+            return left.with(left.left, merge(left.right, right));
+        } else {
+            return right.with(merge(left, right.left), right.right);
+        }
+    }
+
+    private static int size(Node<?> node) {
+        return node != null ? node.size : 0;
+    }
+
+    private static class Node<T> {
+        private final T value;
+        private final int priority;
+        private final int size;
+        private final Node<T> left;
+        private final Node<T> right;
+
+        Node(T value, int priority, Node<T> left, Node<T> right) {
+            this.value = value;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            this.size = size(left) + size(right) + 1;
+        }
+
+        Node<T> with(Node<T> left, Node<T> right) {
+            if (left == this.left && right == this.right) return this;
+            return new Node<>(value, priority, left, right);
+        }
+    }
+}
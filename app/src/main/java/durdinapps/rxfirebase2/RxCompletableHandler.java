@@ -1,12 +1,15 @@
 package durdinapps.rxfirebase2;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
 
+import java.util.concurrent.Executor;
+
 import io.reactivex.CompletableEmitter;
 
 
@@ -19,16 +22,45 @@ public class RxCompletableHandler implements OnFailureListener, OnSuccessListene
     }
 
     public static <T> void assignOnTask(CompletableEmitter completableEmitter, Task<T> task) {
-        RxCompletableHandler handler = new RxCompletableHandler(completableEmitter);
-        task.addOnFailureListener(handler);
-        task.addOnSuccessListener(handler);
-        try {
-            task.addOnCompleteListener(handler);
-        } catch (Throwable t) {
-            // ignore
+        assignOnTask(completableEmitter, task, RxFirebasePlugins.getCallbackExecutor());
+    }
+
+    public static <T> void assignOnTask(CompletableEmitter completableEmitter, Task<T> task, @Nullable Executor executor) {
+        final RxCompletableHandler handler = new RxCompletableHandler(completableEmitter);
+        if (task.isComplete()) {
+            handler.dispatchCompleted(task);
+            return;
+        }
+        if (executor == null) {
+            task.addOnFailureListener(handler);
+            task.addOnSuccessListener(handler);
+            try {
+                task.addOnCompleteListener(handler);
+            } catch (Throwable t) {
+                // ignore
+            }
+        } else {
+            // Listeners on a multi-threaded executor can run in any order, so a single one dispatches the result.
+            task.addOnCompleteListener(executor, new OnCompleteListener() {
+                @Override
+                public void onComplete(@NonNull Task completed) {
+                    handler.dispatchCompleted(completed);
+                }
+            });
         }
     }
 
+    /**
+     * Terminates the emitter directly from a finished {@link Task}, either complete at subscription time or
+     * completed on an executor.
+     */
+    private void dispatchCompleted(Task task) {
+        if (!task.isSuccessful() && task.getException() != null) {
+            onFailure(task.getException());
+        } else {
+            onComplete(task);
+        }
+    }
 
     @Override
     public void onFailure(@NonNull Exception e) {
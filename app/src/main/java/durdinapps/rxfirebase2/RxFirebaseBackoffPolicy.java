@@ -0,0 +1,110 @@
+package durdinapps.rxfirebase2;
+
+import androidx.annotation.NonNull;
+
+import org.reactivestreams.Publisher;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Flowable;
+import io.reactivex.Scheduler;
+import io.reactivex.functions.Function;
+import io.reactivex.functions.Predicate;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Exponential backoff with jitter used to retry operations which failed because of contention. The delay before
+ * the retry {@code n} is a random value between half and the whole of {@code min(initialDelay * 2^n, maxDelay)}.
+ */
+public class RxFirebaseBackoffPolicy {
+
+    private final int maxRetries;
+    private final long initialDelay;
+    private final long maxDelay;
+    private final TimeUnit unit;
+    private final Scheduler scheduler;
+    private final Random random = new Random();
+
+    private RxFirebaseBackoffPolicy(int maxRetries, long initialDelay, long maxDelay, TimeUnit unit,
+                                    Scheduler scheduler) {
+        if (maxRetries < 0) throw new IllegalArgumentException("maxRetries >= 0 required but it was " + maxRetries);
+        if (initialDelay < 0 || maxDelay < initialDelay)
+            throw new IllegalArgumentException("0 <= initialDelay <= maxDelay required but it was "
+                + initialDelay + ", " + maxDelay);
+        this.maxRetries = maxRetries;
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+        this.unit = unit;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @param maxRetries   how many times the operation is retried before giving up.
+     * @param initialDelay base delay of the first retry.
+     * @param maxDelay     upper bound of the delay of any retry.
+     * @param unit         the unit of time of the delays.
+     * @return a new {@link RxFirebaseBackoffPolicy} which waits on the computation {@link Scheduler}.
+     */
+    @NonNull
+    public static RxFirebaseBackoffPolicy exponential(int maxRetries, long initialDelay, long maxDelay,
+                                                      @NonNull TimeUnit unit) {
+        return exponential(maxRetries, initialDelay, maxDelay, unit, Schedulers.computation());
+    }
+
+    /**
+     * @param maxRetries   how many times the operation is retried before giving up.
+     * @param initialDelay base delay of the first retry.
+     * @param maxDelay     upper bound of the delay of any retry.
+     * @param unit         the unit of time of the delays.
+     * @param scheduler    {@link Scheduler} where the delays are timed.
+     * @return a new {@link RxFirebaseBackoffPolicy}.
+     */
+    @NonNull
+    public static RxFirebaseBackoffPolicy exponential(int maxRetries, long initialDelay, long maxDelay,
+                                                      @NonNull TimeUnit unit, @NonNull Scheduler scheduler) {
+        return new RxFirebaseBackoffPolicy(maxRetries, initialDelay, maxDelay, unit, scheduler);
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * @param retry number of the retry, starting at 0.
+     * @return the delay before the given retry, in the unit of this policy.
+     */
+    public long getDelay(int retry) {
+        long delay = retry >= Long.numberOfLeadingZeros(Math.max(initialDelay, 1)) - 1
+            ? maxDelay
+            : Math.min(maxDelay, initialDelay << retry);
+        long half = delay / 2;
+        synchronized (random) {
+            return half + (long) (random.nextDouble() * (delay - half + 1));
+        }
+    }
+
+    /**
+     * Handler for {@code retryWhen} which retries the errors matching the given predicate after the delay of this
+     * policy, up to the max retries, and forwards any other error.
+     *
+     * @param retryable predicate of the errors worth a retry.
+     */
+    @NonNull
+    public Function<Flowable<Throwable>, Publisher<Long>> retryWhen(@NonNull final Predicate<? super Throwable> retryable) {
+        return new Function<Flowable<Throwable>, Publisher<Long>>() {
+            @Override
+            public Publisher<Long> apply(Flowable<Throwable> errors) {
+                return errors.concatMap(new Function<Throwable, Publisher<Long>>() {
+                    private int retries;
+
+                    @Override
+                    public Publisher<Long> apply(Throwable error) throws Exception {
+                        if (retries >= maxRetries || !retryable.test(error)) return Flowable.error(error);
+                        return Flowable.timer(getDelay(retries++), unit, scheduler);
+                    }
+                });
+            }
+        };
+    }
+}
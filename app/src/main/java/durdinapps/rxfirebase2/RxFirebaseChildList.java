@@ -0,0 +1,257 @@
+package durdinapps.rxfirebase2;
+
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Ordered collection of the children of a query kept up to date from its {@link RxFirebaseChildEvent child events}.
+ * Every child is indexed by key, so placing it after its previous child name, moving it or removing it costs
+ * O(log n) expected time instead of a linear scan over the list.
+ * <p>
+ * The children are kept in a persistent tree ordered by position: a change copies only the path to the changed
+ * child and shares the rest with the previous version, so every {@link #snapshot()} is an immutable list which costs
+ * O(log n) memory to produce. A change which doesn't modify the list returns the same snapshot instance, and an
+ * unchanged child keeps the same value instance across versions, so versions can be compared by identity. The
+ * position of a key is found through a second, mutable tree of the keys with parent links, which is never exposed.
+ * <p>
+ * This class is not thread safe, the events have to be applied one at a time like the database listeners deliver them.
+ */
+public class RxFirebaseChildList<T> {
+
+    private final Map<String, Position> positions = new HashMap<>();
+    private final Random random = new Random();
+    private Position order;
+    private PersistentList<T> list = PersistentList.empty();
+
+    /**
+     * Apply the given child event to this list.
+     *
+     * @param event child event dispatched by the database.
+     * @return the {@link Change} done in the list.
+     */
+    @NonNull
+    public Change<T> apply(@NonNull RxFirebaseChildEvent<T> event) {
+        String key = event.getKey();
+        int oldIndex = indexOf(key);
+        int newIndex;
+        switch (event.getEventType()) {
+            case REMOVED:
+                if (oldIndex >= 0) remove(key, oldIndex);
+                newIndex = -1;
+                break;
+            case CHANGED:
+                if (oldIndex >= 0) {
+                    list = list.with(oldIndex, event.getValue());
+                    newIndex = oldIndex;
+                    break;
+                }
+                // Unknown child, place it like an added one.
+            default:
+                if (oldIndex >= 0) remove(key, oldIndex);
+                newIndex = insertAfter(event.getPreviousChildName(), key, event.getValue());
+                break;
+        }
+        return new Change<>(event.getEventType(), key, event.getValue(), oldIndex, newIndex, snapshot());
+    }
+
+    /**
+     * @return the number of children in this list.
+     */
+    public int size() {
+        return list.size();
+    }
+
+    /**
+     * @param index position of the child.
+     * @return the value of the child at the given position.
+     */
+    @NonNull
+    public T get(int index) {
+        return list.get(index);
+    }
+
+    /**
+     * @param key key of the child.
+     * @return the position of the child with the given key, or -1 if it isn't in this list.
+     */
+    public int indexOf(@Nullable String key) {
+        Position position = positions.get(key);
+        return position != null ? rank(position) : -1;
+    }
+
+    /**
+     * @return an immutable version of this list which shares its structure with the following versions.
+     */
+    @NonNull
+    public List<T> snapshot() {
+        return list;
+    }
+
+    private int insertAfter(@Nullable String previousChildName, String key, T value) {
+        int index;
+        if (previousChildName == null) {
+            index = 0;
+        } else {
+            Position previous = positions.get(previousChildName);
+            index = previous != null ? rank(previous) + 1 : size();
+        }
+        Position position = new Position(random.nextInt());
+        Position[] parts = split(order, index);
+        order = merge(merge(parts[0], position), parts[1]);
+        order.parent = null;
+        positions.put(key, position);
+        list = list.plus(index, value);
+        return index;
+    }
+
+    private void remove(String key, int index) {
+        positions.remove(key);
+        Position[] parts = split(order, index);
+        order = merge(parts[0], split(parts[1], 1)[1]);
+        if (order != null) order.parent = null;
+        list = list.minus(index);
+    }
+
+    /**
+     * @return the position of the given key, walking up from it to the root of the order tree.
+     */
+    private static int rank(Position position) {
+        int rank = size(position.left);
+        for (Position child = position, parent = position.parent; parent != null; child = parent, parent = parent.parent) {
+            if (parent.right == child) rank += size(parent.left) + 1;
+        }
+        return rank;
+    }
+
+    /**
+     * Split the given order tree in its first count keys and the rest, relinking the nodes in place.
+     */
+    private static Position[] split(Position node, int count) {
+        if (node == null) return new Position[]{null, null};
+        Position[] parts;
+        if (size(node.left) < count) {
+            parts = split(node.right, count - size(node.left) - 1);
+            node.link(node.left, parts[0]);
+            parts[0] = node;
+        } else {
+            parts = split(node.left, count);
+            node.link(parts[1], node.right);
+            parts[1] = node;
+        }
+        return parts;
+    }
+
+    private static Position merge(Position left, Position right) {
+        if (left == null) return right;
+        if (right == null) return left;
+        if (left.priority > right.priority) {
+            left.link(left.left, merge(left.right, right));
+            return left;
+        } else {
+            right.link(merge(left, right.left), right.right);
+            return right;
+        }
+    }
+
+    private static int size(Position position) {
+        return position != null ? position.size : 0;
+    }
+
+    /**
+     * Mutable node of the order tree, which links to its parent to find the position of its key.
+     */
+    private static class Position {
+        private final int priority;
+        private int size = 1;
+        private Position left;
+        private Position right;
+        private Position parent;
+
+        Position(int priority) {
+            this.priority = priority;
+        }
+
+        void link(Position left, Position right) {
+            this.left = left;
+            this.right = right;
+            if (left != null) left.parent = this;
+            if (right != null) right.parent = this;
+            size = size(left) + size(right) + 1;
+        }
+    }
+
+    /**
+     * Change done in a {@link RxFirebaseChildList} by a child event, together with the resulting list.
+     */
+    public static class Change<T> {
+
+        private final RxFirebaseChildEvent.EventType eventType;
+        private final String key;
+        private final T value;
+        private final int oldIndex;
+        private final int newIndex;
+        private final List<T> snapshot;
+
+        Change(RxFirebaseChildEvent.EventType eventType, String key, T value, int oldIndex, int newIndex,
+               List<T> snapshot) {
+            this.eventType = eventType;
+            this.key = key;
+            this.value = value;
+            this.oldIndex = oldIndex;
+            this.newIndex = newIndex;
+            this.snapshot = snapshot;
+        }
+
+        /**
+         * @return the kind of event which caused this change.
+         */
+        @NonNull
+        public RxFirebaseChildEvent.EventType getEventType() {
+            return eventType;
+        }
+
+        /**
+         * @return the key of the changed child.
+         */
+        @NonNull
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return the value of the changed child.
+         */
+        @NonNull
+        public T getValue() {
+            return value;
+        }
+
+        /**
+         * @return the position of the child before the change, or -1 if it wasn't in the list.
+         */
+        public int getOldIndex() {
+            return oldIndex;
+        }
+
+        /**
+         * @return the position of the child after the change, or -1 if it isn't in the list anymore.
+         */
+        public int getNewIndex() {
+            return newIndex;
+        }
+
+        /**
+         * @return an immutable version of the list after the change, sharing its structure with the previous one.
+         */
+        @NonNull
+        public List<T> getSnapshot() {
+            return snapshot;
+        }
+    }
+}
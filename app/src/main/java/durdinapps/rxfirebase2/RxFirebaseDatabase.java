@@ -1,9 +1,8 @@
 package durdinapps.rxfirebase2;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
-import com.google.android.gms.tasks.OnFailureListener;
-import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.firebase.database.ChildEventListener;
 import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseError;
@@ -13,14 +12,25 @@ import com.google.firebase.database.Query;
 import com.google.firebase.database.Transaction;
 import com.google.firebase.database.ValueEventListener;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import durdinapps.rxfirebase2.exceptions.RxFirebaseDataException;
 import io.reactivex.BackpressureStrategy;
 import io.reactivex.Completable;
 import io.reactivex.CompletableEmitter;
 import io.reactivex.CompletableOnSubscribe;
+import io.reactivex.CompletableSource;
 import io.reactivex.Flowable;
 import io.reactivex.FlowableEmitter;
 import io.reactivex.FlowableOnSubscribe;
@@ -28,16 +38,40 @@ import io.reactivex.Maybe;
 import io.reactivex.MaybeEmitter;
 import io.reactivex.MaybeOnSubscribe;
 import io.reactivex.MaybeSource;
+import io.reactivex.Observable;
+import io.reactivex.ObservableEmitter;
+import io.reactivex.ObservableOnSubscribe;
+import io.reactivex.ObservableSource;
+import io.reactivex.Scheduler;
 import io.reactivex.Single;
 import io.reactivex.SingleEmitter;
 import io.reactivex.SingleOnSubscribe;
+import io.reactivex.disposables.Disposable;
 import io.reactivex.functions.Cancellable;
+import io.reactivex.functions.Consumer;
 import io.reactivex.functions.Function;
+import io.reactivex.functions.Predicate;
+import io.reactivex.schedulers.Schedulers;
+
+import org.reactivestreams.Publisher;
 
 import static durdinapps.rxfirebase2.DataSnapshotMapper.DATA_SNAPSHOT_EXISTENCE_PREDICATE;
 
 public class RxFirebaseDatabase {
 
+    /**
+     * Number of {@link #keepSynced(Query)} subscriptions of each query.
+     */
+    private static final Map<Query, Integer> keptSynced = new HashMap<>();
+
+    private static final Predicate<Throwable> TRANSACTION_CONTENTION = new Predicate<Throwable>() {
+        @Override
+        public boolean test(Throwable throwable) {
+            return throwable instanceof RxFirebaseDataException
+                && ((RxFirebaseDataException) throwable).getError().getCode() == DatabaseError.MAX_RETRIES;
+        }
+    };
+
     /**
      * Listener for changes in te data at the given query location.
      *
@@ -106,6 +140,213 @@ public class RxFirebaseDatabase {
         });
     }
 
+    /**
+     * Read the data at the given query in two phases: the local value, as {@link #observeSingleValueEvent(Query)}
+     * gets it, which may be stale, and then the server value through {@link Query#get()} if it differs. Each
+     * emission tells which phase it comes from through {@link RxFirebaseSnapshot#isLocal()}, which isn't the same as
+     * coming from the cache: when nothing is cached the local value comes from the server as well. If the server
+     * answers first, only its value is emitted. If the server doesn't answer within the timeout, or the client is
+     * offline, the stream completes after the local value, and fails with the server error only if there is no
+     * local value by the timeout either.
+     *
+     * @param query   reference represents a particular location in your Database and can be used for reading or writing data to that Database location.
+     * @param timeout time to wait for the server value.
+     * @param unit    the unit of time of the timeout.
+     * @return a {@link Flowable} which emits the local {@link RxFirebaseSnapshot} and then the server one if it
+     * changed.
+     */
+    @NonNull
+    public static Flowable<RxFirebaseSnapshot> getValueFromCacheThenServer(@NonNull final Query query,
+                                                                           long timeout,
+                                                                           @NonNull TimeUnit unit) {
+        return getValueFromCacheThenServer(query, timeout, unit, Schedulers.computation());
+    }
+
+    /**
+     * Read the data at the given query in two phases: the local value, as {@link #observeSingleValueEvent(Query)}
+     * gets it, which may be stale, and then the server value through {@link Query#get()} if it differs. Each
+     * emission tells which phase it comes from through {@link RxFirebaseSnapshot#isLocal()}, which isn't the same as
+     * coming from the cache: when nothing is cached the local value comes from the server as well. If the server
+     * answers first, only its value is emitted. If the server doesn't answer within the timeout, or the client is
+     * offline, the stream completes after the local value, and fails with the server error only if there is no
+     * local value by the timeout either.
+     *
+     * @param query     reference represents a particular location in your Database and can be used for reading or writing data to that Database location.
+     * @param timeout   time to wait for the server value.
+     * @param unit      the unit of time of the timeout.
+     * @param scheduler {@link Scheduler} where the timeout is timed.
+     * @return a {@link Flowable} which emits the local {@link RxFirebaseSnapshot} and then the server one if it
+     * changed.
+     */
+    @NonNull
+    public static Flowable<RxFirebaseSnapshot> getValueFromCacheThenServer(@NonNull final Query query,
+                                                                           final long timeout,
+                                                                           @NonNull final TimeUnit unit,
+                                                                           @NonNull final Scheduler scheduler) {
+        return Flowable.create(new FlowableOnSubscribe<RxFirebaseSnapshot>() {
+            @Override
+            public void subscribe(final FlowableEmitter<RxFirebaseSnapshot> emitter) {
+                final Object lock = new Object();
+                final AtomicBoolean finished = new AtomicBoolean();
+                final AtomicBoolean localFailed = new AtomicBoolean();
+                final AtomicBoolean deadlinePassed = new AtomicBoolean();
+                final AtomicReference<DataSnapshot> cached = new AtomicReference<>();
+                final AtomicReference<Throwable> serverError = new AtomicReference<>();
+                final ValueEventListener localListener = new ValueEventListener() {
+                    @Override
+                    public void onDataChange(DataSnapshot dataSnapshot) {
+                        synchronized (lock) {
+                            if (finished.get()) return;
+                            cached.set(dataSnapshot);
+                            emitter.onNext(new RxFirebaseSnapshot(dataSnapshot, true));
+                            if (serverError.get() != null) {
+                                finished.set(true);
+                                emitter.onComplete();
+                            }
+                        }
+                    }
+
+                    @Override
+                    public void onCancelled(DatabaseError error) {
+                        synchronized (lock) {
+                            if (finished.get()) return;
+                            localFailed.set(true);
+                            Throwable throwable = serverError.get();
+                            if (throwable != null) {
+                                finished.set(true);
+                                emitter.onError(throwable);
+                            }
+                        }
+                    }
+                };
+                // Registered before the server read, so the local value is already on its way if the server fails.
+                query.addListenerForSingleValueEvent(localListener);
+                final Disposable deadline = scheduler.scheduleDirect(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (lock) {
+                            deadlinePassed.set(true);
+                            Throwable throwable = serverError.get();
+                            if (finished.get() || throwable == null || cached.get() != null) return;
+                            finished.set(true);
+                            emitter.onError(throwable);
+                        }
+                    }
+                }, timeout, unit);
+                final Disposable serverRead = getServerValue(query)
+                    .timeout(timeout, unit, scheduler)
+                    .subscribe(new Consumer<DataSnapshot>() {
+                        @Override
+                        public void accept(DataSnapshot dataSnapshot) {
+                            synchronized (lock) {
+                                if (finished.get()) return;
+                                finished.set(true);
+                                DataSnapshot cachedSnapshot = cached.get();
+                                if (cachedSnapshot == null || !sameValue(cachedSnapshot, dataSnapshot))
+                                    emitter.onNext(new RxFirebaseSnapshot(dataSnapshot, false));
+                                emitter.onComplete();
+                            }
+                        }
+                    }, new Consumer<Throwable>() {
+                        @Override
+                        public void accept(Throwable throwable) {
+                            synchronized (lock) {
+                                if (finished.get()) return;
+                                serverError.set(throwable);
+                                if (cached.get() != null) {
+                                    finished.set(true);
+                                    emitter.onComplete();
+                                } else if (localFailed.get() || deadlinePassed.get()) {
+                                    finished.set(true);
+                                    emitter.onError(throwable);
+                                }
+                            }
+                        }
+                    });
+                emitter.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() {
+                        serverRead.dispose();
+                        deadline.dispose();
+                        query.removeEventListener(localListener);
+                    }
+                });
+            }
+        }, BackpressureStrategy.BUFFER);
+    }
+
+    /**
+     * Keep the data at the given query synced in the local cache while subscribed, even without listeners, so
+     * it can be read right away. Calls on the same reference or query object share the sync, which stops once
+     * every subscription is disposed.
+     *
+     * @param query reference represents a particular location in your Database and can be used for reading or writing data to that Database location.
+     * @return a {@link Completable} which never completes, dispose it to stop syncing.
+     */
+    @NonNull
+    public static Completable keepSynced(@NonNull final Query query) {
+        return Completable.create(new CompletableOnSubscribe() {
+            @Override
+            public void subscribe(CompletableEmitter emitter) {
+                synchronized (keptSynced) {
+                    Integer holders = keptSynced.get(query);
+                    if (holders == null) query.keepSynced(true);
+                    keptSynced.put(query, holders == null ? 1 : holders + 1);
+                }
+                emitter.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() {
+                        synchronized (keptSynced) {
+                            Integer holders = keptSynced.get(query);
+                            if (holders == null) return;
+                            if (holders == 1) {
+                                keptSynced.remove(query);
+                                query.keepSynced(false);
+                            } else {
+                                keptSynced.put(query, holders - 1);
+                            }
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Load the server value of the given query into the local cache, so later reads of a hot path don't wait on
+     * the network. Nothing is read if the query is already kept synced through {@link #keepSynced(Query)}.
+     *
+     * @param query reference represents a particular location in your Database and can be used for reading or writing data to that Database location.
+     * @return a {@link Completable} which completes once the value is cached.
+     */
+    @NonNull
+    public static Completable prefetch(@NonNull final Query query) {
+        return Completable.defer(new Callable<CompletableSource>() {
+            @Override
+            public CompletableSource call() {
+                synchronized (keptSynced) {
+                    if (keptSynced.containsKey(query)) return Completable.complete();
+                }
+                return getServerValue(query).toCompletable();
+            }
+        });
+    }
+
+    private static Single<DataSnapshot> getServerValue(final Query query) {
+        return Single.create(new SingleOnSubscribe<DataSnapshot>() {
+            @Override
+            public void subscribe(SingleEmitter<DataSnapshot> emitter) {
+                RxSingleHandler.assignOnTask(emitter, query.get());
+            }
+        });
+    }
+
+    private static boolean sameValue(DataSnapshot cached, DataSnapshot fetched) {
+        Object cachedValue = cached.getValue();
+        Object fetchedValue = fetched.getValue();
+        return cachedValue == null ? fetchedValue == null : cachedValue.equals(fetchedValue);
+    }
+
     /**
      * Run a transaction on the data at this location. For more information on running transactions, see
      *
@@ -118,30 +359,99 @@ public class RxFirebaseDatabase {
     public static Single<DataSnapshot> runTransaction(@NonNull final DatabaseReference ref,
                                                       @NonNull final boolean fireLocalEvents,
                                                       @NonNull final long transactionValue) {
-        return Single.create(new SingleOnSubscribe<DataSnapshot>() {
+        return runTransaction(ref, new Function<MutableData, Transaction.Result>() {
             @Override
-            public void subscribe(final SingleEmitter emitter) throws Exception {
-                ref.runTransaction(new Transaction.Handler() {
-                    @Override
-                    public Transaction.Result doTransaction(MutableData mutableData) {
-                        Integer currentValue = mutableData.getValue(Integer.class);
-                        if (currentValue == null) {
-                            mutableData.setValue(transactionValue);
-                        } else {
-                            mutableData.setValue(currentValue + transactionValue);
-                        }
-                        return Transaction.success(mutableData);
-                    }
+            public Transaction.Result apply(MutableData mutableData) {
+                Long currentValue = mutableData.getValue(Long.class);
+                if (currentValue == null) {
+                    mutableData.setValue(transactionValue);
+                } else {
+                    mutableData.setValue(currentValue + transactionValue);
+                }
+                return Transaction.success(mutableData);
+            }
+        }, fireLocalEvents, null).map(new Function<RxFirebaseTransactionResult, DataSnapshot>() {
+            @Override
+            public DataSnapshot apply(RxFirebaseTransactionResult result) {
+                return result.getSnapshot();
+            }
+        });
+    }
 
-                    @Override
-                    public void onComplete(DatabaseError databaseError, boolean b, DataSnapshot dataSnapshot) {
-                        if (databaseError != null && !emitter.isDisposed()) {
-                            emitter.onError(new RxFirebaseDataException(databaseError));
-                        } else {
-                            emitter.onSuccess(dataSnapshot);
+    /**
+     * Run a transaction on the data at this location.
+     *
+     * @param ref     reference represents a particular location in your database.
+     * @param handler function which applies the transaction to the current data, returning
+     *                {@link Transaction#success(MutableData)} or {@link Transaction#abort()}. It may run several times.
+     * @return a {@link Single} which emits the {@link RxFirebaseTransactionResult} of the transaction.
+     */
+    @NonNull
+    public static Single<RxFirebaseTransactionResult> runTransaction(
+        @NonNull final DatabaseReference ref,
+        @NonNull final Function<? super MutableData, ? extends Transaction.Result> handler) {
+        return runTransaction(ref, handler, true, null);
+    }
+
+    /**
+     * Run a transaction on the data at this location. The client runs the handler again every time the data
+     * changed on the server before the write, and fails with {@link DatabaseError#MAX_RETRIES} after too many
+     * attempts. With a backoff policy that error is retried after a delay instead of failing.
+     *
+     * @param ref             reference represents a particular location in your database.
+     * @param handler         function which applies the transaction to the current data, returning
+     *                        {@link Transaction#success(MutableData)} or {@link Transaction#abort()}. It may run
+     *                        several times.
+     * @param fireLocalEvents boolean which allow to receive calls of your transaction in your local device.
+     * @param backoff         policy to retry the transaction when it fails because of contention, or null to fail.
+     * @return a {@link Single} which emits the {@link RxFirebaseTransactionResult} of the transaction.
+     */
+    @NonNull
+    public static Single<RxFirebaseTransactionResult> runTransaction(
+        @NonNull final DatabaseReference ref,
+        @NonNull final Function<? super MutableData, ? extends Transaction.Result> handler,
+        final boolean fireLocalEvents,
+        @Nullable final RxFirebaseBackoffPolicy backoff) {
+        return Single.defer(new Callable<Single<RxFirebaseTransactionResult>>() {
+            @Override
+            public Single<RxFirebaseTransactionResult> call() {
+                final AtomicInteger attempts = new AtomicInteger();
+                Single<RxFirebaseTransactionResult> transaction =
+                    Single.create(new SingleOnSubscribe<RxFirebaseTransactionResult>() {
+                        @Override
+                        public void subscribe(final SingleEmitter<RxFirebaseTransactionResult> emitter) {
+                            final AtomicReference<Throwable> handlerError = new AtomicReference<>();
+                            ref.runTransaction(new Transaction.Handler() {
+                                @Override
+                                public Transaction.Result doTransaction(MutableData mutableData) {
+                                    attempts.incrementAndGet();
+                                    try {
+                                        handlerError.set(null);
+                                        return handler.apply(mutableData);
+                                    } catch (Throwable e) {
+                                        handlerError.set(e);
+                                        return Transaction.abort();
+                                    }
+                                }
+
+                                @Override
+                                public void onComplete(DatabaseError databaseError, boolean committed,
+                                                       DataSnapshot dataSnapshot) {
+                                    if (emitter.isDisposed()) return;
+                                    Throwable error = handlerError.get();
+                                    if (databaseError != null) {
+                                        emitter.onError(new RxFirebaseDataException(databaseError));
+                                    } else if (!committed && error != null) {
+                                        emitter.onError(error);
+                                    } else {
+                                        emitter.onSuccess(
+                                            new RxFirebaseTransactionResult(committed, dataSnapshot, attempts.get()));
+                                    }
+                                }
+                            }, fireLocalEvents);
                         }
-                    }
-                }, fireLocalEvents);
+                    });
+                return backoff == null ? transaction : transaction.retryWhen(backoff.retryWhen(TRANSACTION_CONTENTION));
             }
         });
     }
@@ -160,18 +470,27 @@ public class RxFirebaseDatabase {
         return Completable.create(new CompletableOnSubscribe() {
             @Override
             public void subscribe(@NonNull final CompletableEmitter e) throws Exception {
-                ref.setValue(value).addOnSuccessListener(new OnSuccessListener<Void>() {
-                    @Override
-                    public void onSuccess(Void aVoid) {
-                        e.onComplete();
-                    }
-                }).addOnFailureListener(new OnFailureListener() {
-                    @Override
-                    public void onFailure(@NonNull Exception exception) {
-                        if (!e.isDisposed())
-                            e.onError(exception);
-                    }
-                });
+                RxCompletableHandler.assignOnTask(e, ref.setValue(value));
+            }
+        });
+    }
+
+    /**
+     * Set the given value on the specified {@link DatabaseReference}.
+     *
+     * @param ref      reference represents a particular location in your database.
+     * @param value    value to update.
+     * @param executor the executor to use to call the task listeners.
+     * @return a {@link Completable} which is complete when the set value call finish successfully.
+     */
+    @NonNull
+    public static Completable setValue(@NonNull final DatabaseReference ref,
+                                       final Object value,
+                                       @NonNull final Executor executor) {
+        return Completable.create(new CompletableOnSubscribe() {
+            @Override
+            public void subscribe(@NonNull final CompletableEmitter e) throws Exception {
+                RxCompletableHandler.assignOnTask(e, ref.setValue(value), executor);
             }
         });
     }
@@ -371,7 +690,7 @@ public class RxFirebaseDatabase {
     public static <T> Flowable<T> observeValueEvent(@NonNull final Query query,
                                                     @NonNull final Function<? super DataSnapshot, ? extends T> mapper,
                                                     @NonNull BackpressureStrategy strategy) {
-        return observeValueEvent(query, strategy).map(mapper);
+        return mapOnScheduler(observeValueEvent(query, strategy), mapper);
     }
 
     /**
@@ -401,7 +720,7 @@ public class RxFirebaseDatabase {
     public static <T> Flowable<RxFirebaseChildEvent<T>> observeChildEvent(
         @NonNull final Query query, @NonNull final Function<? super RxFirebaseChildEvent<DataSnapshot>,
         ? extends RxFirebaseChildEvent<T>> mapper, @NonNull BackpressureStrategy strategy) {
-        return observeChildEvent(query, strategy).map(mapper);
+        return mapOnScheduler(observeChildEvent(query, strategy), mapper);
     }
 
     /**
@@ -476,7 +795,7 @@ public class RxFirebaseDatabase {
     @NonNull
     public static <T> Flowable<T> observeValueEvent(@NonNull final Query query,
                                                     @NonNull final Function<? super DataSnapshot, ? extends T> mapper) {
-        return observeValueEvent(query, BackpressureStrategy.DROP).map(mapper);
+        return mapOnScheduler(observeValueEvent(query, BackpressureStrategy.DROP), mapper);
     }
 
     /**
@@ -490,6 +809,514 @@ public class RxFirebaseDatabase {
     public static <T> Flowable<RxFirebaseChildEvent<T>> observeChildEvent(
         @NonNull final Query query, @NonNull final Function<? super RxFirebaseChildEvent<DataSnapshot>,
         ? extends RxFirebaseChildEvent<T>> mapper) {
-        return observeChildEvent(query, BackpressureStrategy.DROP).map(mapper);
+        return mapOnScheduler(observeChildEvent(query, BackpressureStrategy.DROP), mapper);
+    }
+
+    /**
+     * Listener for changes in te data at the given query location. The raw {@link DataSnapshot} is handed to the
+     * given scheduler before mapping, so the listener callback doesn't pay for the mapping.
+     *
+     * @param query     reference represents a particular location in your Database and can be used for reading or writing data to that Database location.
+     * @param clazz     class type for the {@link DataSnapshot} items.
+     * @param strategy  {@link BackpressureStrategy} associated to this {@link Flowable}
+     * @param scheduler {@link Scheduler} where the mapping is done.
+     * @return a {@link Flowable} which emits when a value of the database change in the given query.
+     */
+    @NonNull
+    public static <T> Flowable<T> observeValueEvent(@NonNull final Query query,
+                                                    @NonNull final Class<T> clazz,
+                                                    @NonNull BackpressureStrategy strategy,
+                                                    @NonNull Scheduler scheduler) {
+        return observeValueEvent(query, DataSnapshotMapper.of(clazz), strategy, scheduler);
+    }
+
+    /**
+     * Listener for changes in te data at the given query location. The raw {@link DataSnapshot} is handed to the
+     * given scheduler before mapping, so the listener callback doesn't pay for the mapping.
+     *
+     * @param query     reference represents a particular location in your Database and can be used for reading or writing data to that Database location.
+     * @param mapper    specific function to map the dispatched events.
+     * @param strategy  {@link BackpressureStrategy} associated to this {@link Flowable}
+     * @param scheduler {@link Scheduler} where the mapping is done.
+     * @return a {@link Flowable} which emits when a value of the database change in the given query.
+     */
+    @NonNull
+    public static <T> Flowable<T> observeValueEvent(@NonNull final Query query,
+                                                    @NonNull final Function<? super DataSnapshot, ? extends T> mapper,
+                                                    @NonNull BackpressureStrategy strategy,
+                                                    @NonNull Scheduler scheduler) {
+        return observeValueEvent(query, strategy)
+            .observeOn(scheduler, false, RxFirebasePlugins.getMappingBufferSize())
+            .map(mapper);
+    }
+
+    /**
+     * Listener for for child events occurring at the given query location. The raw {@link DataSnapshot} is handed
+     * to the given scheduler before mapping, so the listener callback doesn't pay for the mapping.
+     *
+     * @param query     reference represents a particular location in your Database and can be used for reading or writing data to that Database location.
+     * @param clazz     class type for the {@link DataSnapshot} items.
+     * @param strategy  {@link BackpressureStrategy} associated to this {@link Flowable}
+     * @param scheduler {@link Scheduler} where the mapping is done.
+     * @return a {@link Flowable} which emits when a value of a child int the database change on the given query.
+     */
+    @NonNull
+    public static <T> Flowable<RxFirebaseChildEvent<T>> observeChildEvent(
+        @NonNull final Query query, @NonNull final Class<T> clazz,
+        @NonNull BackpressureStrategy strategy, @NonNull Scheduler scheduler) {
+        return observeChildEvent(query, DataSnapshotMapper.ofChildEvent(clazz), strategy, scheduler);
+    }
+
+    /**
+     * Listener for for child events occurring at the given query location. The raw {@link DataSnapshot} is handed
+     * to the given scheduler before mapping, so the listener callback doesn't pay for the mapping.
+     *
+     * @param query     reference represents a particular location in your Database and can be used for reading or writing data to that Database location.
+     * @param mapper    specific function to map the dispatched events.
+     * @param strategy  {@link BackpressureStrategy} associated to this {@link Flowable}
+     * @param scheduler {@link Scheduler} where the mapping is done.
+     * @return a {@link Flowable} which emits when a value of a child int the database change on the given query.
+     */
+    @NonNull
+    public static <T> Flowable<RxFirebaseChildEvent<T>> observeChildEvent(
+        @NonNull final Query query, @NonNull final Function<? super RxFirebaseChildEvent<DataSnapshot>,
+        ? extends RxFirebaseChildEvent<T>> mapper, @NonNull BackpressureStrategy strategy,
+        @NonNull Scheduler scheduler) {
+        return observeChildEvent(query, strategy)
+            .observeOn(scheduler, false, RxFirebasePlugins.getMappingBufferSize())
+            .map(mapper);
+    }
+
+    /**
+     * Conflating listener for changes in the data at the given query location. Only the most recent
+     * {@link DataSnapshot} is kept while the subscriber is busy and it is always delivered as soon as it requests
+     * more, so a slow subscriber catches up with the current state instead of staying on a stale one.
+     *
+     * @param query reference represents a particular location in your Database and can be used for reading or writing data to that Database location.
+     * @return a {@link Flowable} which emits the latest value of the database in the given query.
+     */
+    @NonNull
+    public static Flowable<DataSnapshot> observeLatestValueEvent(@NonNull final Query query) {
+        return observeValueEvent(query, BackpressureStrategy.LATEST);
+    }
+
+    /**
+     * Conflating listener for changes in the data at the given query location which emits at most one
+     * {@link DataSnapshot}, the latest one, for each sample period.
+     *
+     * @param query  reference represents a particular location in your Database and can be used for reading or writing data to that Database location.
+     * @param period the sampling period.
+     * @param unit   the unit of time of the sampling period.
+     * @return a {@link Flowable} which emits the latest value of the database in the given query once per period.
+     */
+    @NonNull
+    public static Flowable<DataSnapshot> observeLatestValueEvent(@NonNull final Query query,
+                                                                 final long period,
+                                                                 @NonNull final TimeUnit unit) {
+        return observeLatestValueEvent(query)
+            .sample(period, unit, true)
+            .onBackpressureLatest();
+    }
+
+    /**
+     * Conflating listener for changes in the data at the given query location. Only the snapshots which reach
+     * the subscriber are mapped.
+     *
+     * @param query  reference represents a particular location in your Database and can be used for reading or writing data to that Database location.
+     * @param mapper specific function to map the dispatched events.
+     * @return a {@link Flowable} which emits the latest value of the database in the given query.
+     */
+    @NonNull
+    public static <T> Flowable<T> observeLatestValueEvent(@NonNull final Query query,
+                                                          @NonNull final Function<? super DataSnapshot, ? extends T> mapper) {
+        return mapOnScheduler(observeLatestValueEvent(query), mapper, 1);
+    }
+
+    /**
+     * Conflating listener for changes in the data at the given query location which emits at most one mapped
+     * value, the latest one, for each sample period.
+     *
+     * @param query  reference represents a particular location in your Database and can be used for reading or writing data to that Database location.
+     * @param mapper specific function to map the dispatched events.
+     * @param period the sampling period.
+     * @param unit   the unit of time of the sampling period.
+     * @return a {@link Flowable} which emits the latest value of the database in the given query once per period.
+     */
+    @NonNull
+    public static <T> Flowable<T> observeLatestValueEvent(@NonNull final Query query,
+                                                          @NonNull final Function<? super DataSnapshot, ? extends T> mapper,
+                                                          final long period,
+                                                          @NonNull final TimeUnit unit) {
+        return mapOnScheduler(observeLatestValueEvent(query, period, unit), mapper, 1);
+    }
+
+    /**
+     * Listener for child events occurring at the given query location which delivers them in batches. Every
+     * child which is already at the location when listening starts is emitted together as the first batch, and
+     * the following events are grouped by time window or by size, whichever fills first, so a list adapter can
+     * apply them in bulk. Batches the subscriber isn't ready for are buffered.
+     *
+     * @param query    reference represents a particular location in your Database and can be used for reading or writing data to that Database location.
+     * @param timespan the period of time each batch of live events collects values before it is emitted.
+     * @param unit     the unit of time of the timespan.
+     * @param count    the maximum size of each batch of live events.
+     * @return a {@link Flowable} which emits lists of child events on the given query.
+     */
+    @NonNull
+    public static Flowable<List<RxFirebaseChildEvent<DataSnapshot>>> observeChildEventBatches(
+        @NonNull final Query query, final long timespan, @NonNull final TimeUnit unit, final int count) {
+        return observeChildEventBatches(query, timespan, unit, count, BackpressureStrategy.BUFFER);
+    }
+
+    /**
+     * Listener for child events occurring at the given query location which delivers them in batches. Every
+     * child which is already at the location when listening starts is emitted together as the first batch, and
+     * the following events are grouped by time window or by size, whichever fills first, so a list adapter can
+     * apply them in bulk. The events are batched as they arrive, and the given strategy applies to the batches
+     * the subscriber isn't ready for.
+     *
+     * @param query    reference represents a particular location in your Database and can be used for reading or writing data to that Database location.
+     * @param timespan the period of time each batch of live events collects values before it is emitted.
+     * @param unit     the unit of time of the timespan.
+     * @param count    the maximum size of each batch of live events.
+     * @param strategy {@link BackpressureStrategy} applied to the batches.
+     * @return a {@link Flowable} which emits lists of child events on the given query.
+     */
+    @NonNull
+    public static Flowable<List<RxFirebaseChildEvent<DataSnapshot>>> observeChildEventBatches(
+        @NonNull final Query query, final long timespan, @NonNull final TimeUnit unit, final int count,
+        @NonNull BackpressureStrategy strategy) {
+        return observeChildEventBatches(query).publish(
+            new Function<Observable<List<RxFirebaseChildEvent<DataSnapshot>>>, ObservableSource<List<RxFirebaseChildEvent<DataSnapshot>>>>() {
+                @Override
+                public ObservableSource<List<RxFirebaseChildEvent<DataSnapshot>>> apply(
+                    Observable<List<RxFirebaseChildEvent<DataSnapshot>>> shared) throws Exception {
+                    Observable<List<RxFirebaseChildEvent<DataSnapshot>>> liveBatches = shared.skip(1)
+                        .flatMapIterable(new Function<List<RxFirebaseChildEvent<DataSnapshot>>, Iterable<RxFirebaseChildEvent<DataSnapshot>>>() {
+                            @Override
+                            public Iterable<RxFirebaseChildEvent<DataSnapshot>> apply(List<RxFirebaseChildEvent<DataSnapshot>> events) {
+                                return events;
+                            }
+                        })
+                        .buffer(timespan, unit, count)
+                        .filter(new Predicate<List<RxFirebaseChildEvent<DataSnapshot>>>() {
+                            @Override
+                            public boolean test(List<RxFirebaseChildEvent<DataSnapshot>> events) {
+                                return !events.isEmpty();
+                            }
+                        });
+                    return Observable.merge(shared.take(1), liveBatches);
+                }
+            }).toFlowable(strategy);
+    }
+
+    /**
+     * Listener for child events occurring at the given query location which delivers them in batches. Every
+     * child which is already at the location when listening starts is emitted together as the first batch, and
+     * the following events are grouped by time window or by size, whichever fills first. Batches the subscriber
+     * isn't ready for are buffered.
+     *
+     * @param query    reference represents a particular location in your Database and can be used for reading or writing data to that Database location.
+     * @param clazz    class type for the {@link DataSnapshot} items.
+     * @param timespan the period of time each batch of live events collects values before it is emitted.
+     * @param unit     the unit of time of the timespan.
+     * @param count    the maximum size of each batch of live events.
+     * @return a {@link Flowable} which emits lists of child events on the given query.
+     */
+    @NonNull
+    public static <T> Flowable<List<RxFirebaseChildEvent<T>>> observeChildEventBatches(
+        @NonNull final Query query, @NonNull final Class<T> clazz, final long timespan,
+        @NonNull final TimeUnit unit, final int count) {
+        return observeChildEventBatches(query, clazz, timespan, unit, count, BackpressureStrategy.BUFFER);
+    }
+
+    /**
+     * Listener for child events occurring at the given query location which delivers them in batches. Every
+     * child which is already at the location when listening starts is emitted together as the first batch, and
+     * the following events are grouped by time window or by size, whichever fills first. The given strategy
+     * applies to the batches the subscriber isn't ready for.
+     *
+     * @param query    reference represents a particular location in your Database and can be used for reading or writing data to that Database location.
+     * @param clazz    class type for the {@link DataSnapshot} items.
+     * @param timespan the period of time each batch of live events collects values before it is emitted.
+     * @param unit     the unit of time of the timespan.
+     * @param count    the maximum size of each batch of live events.
+     * @param strategy {@link BackpressureStrategy} applied to the batches.
+     * @return a {@link Flowable} which emits lists of child events on the given query.
+     */
+    @NonNull
+    public static <T> Flowable<List<RxFirebaseChildEvent<T>>> observeChildEventBatches(
+        @NonNull final Query query, @NonNull final Class<T> clazz, final long timespan,
+        @NonNull final TimeUnit unit, final int count, @NonNull BackpressureStrategy strategy) {
+        final DataSnapshotMapper<RxFirebaseChildEvent<DataSnapshot>, RxFirebaseChildEvent<T>> mapper =
+            DataSnapshotMapper.ofChildEvent(clazz);
+        return mapOnScheduler(observeChildEventBatches(query, timespan, unit, count, strategy),
+            new Function<List<RxFirebaseChildEvent<DataSnapshot>>, List<RxFirebaseChildEvent<T>>>() {
+                @Override
+                public List<RxFirebaseChildEvent<T>> apply(List<RxFirebaseChildEvent<DataSnapshot>> events) throws Exception {
+                    List<RxFirebaseChildEvent<T>> mapped = new ArrayList<>(events.size());
+                    for (RxFirebaseChildEvent<DataSnapshot> event : events) {
+                        mapped.add(mapper.apply(event));
+                    }
+                    return mapped;
+                }
+            });
+    }
+
+    /**
+     * Listener for the children of the given query location kept as an ordered list. Each child event is applied
+     * to a {@link RxFirebaseChildList}, and the resulting {@link RxFirebaseChildList.Change} is emitted with the
+     * positions of the child and an immutable snapshot of the whole list.
+     *
+     * @param query reference represents a particular location in your Database and can be used for reading or writing data to that Database location.
+     * @param clazz class type for the {@link DataSnapshot} items.
+     * @return a {@link Flowable} which emits every change of the children of the given query.
+     */
+    @NonNull
+    public static <T> Flowable<RxFirebaseChildList.Change<T>> observeChildList(@NonNull final Query query,
+                                                                               @NonNull final Class<T> clazz) {
+        return observeChildList(query, DataSnapshotMapper.ofChildEvent(clazz));
+    }
+
+    /**
+     * Listener for the children of the given query location kept as an ordered list. Each child event is applied
+     * to a {@link RxFirebaseChildList}, and the resulting {@link RxFirebaseChildList.Change} is emitted with the
+     * positions of the child and an immutable snapshot of the whole list.
+     *
+     * @param query  reference represents a particular location in your Database and can be used for reading or writing data to that Database location.
+     * @param mapper specific function to map the dispatched events.
+     * @return a {@link Flowable} which emits every change of the children of the given query.
+     */
+    @NonNull
+    public static <T> Flowable<RxFirebaseChildList.Change<T>> observeChildList(
+        @NonNull final Query query, @NonNull final Function<? super RxFirebaseChildEvent<DataSnapshot>,
+        ? extends RxFirebaseChildEvent<T>> mapper) {
+        return Flowable.defer(new Callable<Publisher<RxFirebaseChildList.Change<T>>>() {
+            @Override
+            public Publisher<RxFirebaseChildList.Change<T>> call() throws Exception {
+                final RxFirebaseChildList<T> childList = new RxFirebaseChildList<>();
+                return mapOnScheduler(observeChildEvent(query, BackpressureStrategy.BUFFER), mapper)
+                    .map(new Function<RxFirebaseChildEvent<T>, RxFirebaseChildList.Change<T>>() {
+                        @Override
+                        public RxFirebaseChildList.Change<T> apply(RxFirebaseChildEvent<T> event) {
+                            return childList.apply(event);
+                        }
+                    });
+            }
+        });
+    }
+
+    /**
+     * Reads the children of the given query location page by page ordered by key. Each page starts at the last
+     * key of the previous one with limitToFirst(pageSize + 1), dropping that overlapping child, and is only
+     * requested to the database when the subscriber requests it.
+     *
+     * @param query    reference represents a particular location in your Database and can be used for reading or writing data to that Database location.
+     * @param pageSize maximum number of children of each page.
+     * @return a {@link Flowable} which emits a list of children per requested page.
+     */
+    @NonNull
+    public static Flowable<List<DataSnapshot>> getPages(@NonNull final Query query, final int pageSize) {
+        return getPages(query, null, pageSize, false, new Function<DataSnapshot, DataSnapshot>() {
+            @Override
+            public DataSnapshot apply(DataSnapshot dataSnapshot) {
+                return dataSnapshot;
+            }
+        });
+    }
+
+    /**
+     * Reads the children of the given query location page by page ordered by key or by the given child.
+     *
+     * @param query    reference represents a particular location in your Database and can be used for reading or writing data to that Database location.
+     * @param clazz    class type for the {@link DataSnapshot} items.
+     * @param pageSize maximum number of children of each page.
+     * @param reverse  true to start from the last child and emit the pages and their children in descending order.
+     * @return a {@link Flowable} which emits a list of mapped children per requested page.
+     */
+    @NonNull
+    public static <T> Flowable<List<T>> getPages(@NonNull final Query query,
+                                                 @NonNull final Class<T> clazz,
+                                                 final int pageSize,
+                                                 final boolean reverse) {
+        return getPages(query, null, pageSize, reverse, DataSnapshotMapper.of(clazz));
+    }
+
+    /**
+     * Reads the children of the given query location page by page ordered by key or by the given child. Going
+     * forward each page is read with startAt(cursor).limitToFirst(pageSize + 1) and in reverse with
+     * endAt(cursor).limitToLast(pageSize + 1), where the cursor is the last child of the previous page, which is
+     * dropped from the new one. Pages are only requested to the database when the subscriber requests them.
+     *
+     * @param query        reference represents a particular location in your Database and can be used for reading or writing data to that Database location.
+     * @param orderByChild child used to order the children, or null to order them by key.
+     * @param pageSize     maximum number of children of each page.
+     * @param reverse      true to start from the last child and emit the pages and their children in descending order.
+     * @param mapper       specific function to map each child.
+     * @return a {@link Flowable} which emits a list of mapped children per requested page.
+     */
+    @NonNull
+    public static <T> Flowable<List<T>> getPages(@NonNull final Query query,
+                                                 @Nullable final String orderByChild,
+                                                 final int pageSize,
+                                                 final boolean reverse,
+                                                 @NonNull final Function<? super DataSnapshot, ? extends T> mapper) {
+        if (pageSize <= 0) throw new IllegalArgumentException("pageSize > 0 required but it was " + pageSize);
+        final Query ordered = orderByChild == null ? query.orderByKey() : query.orderByChild(orderByChild);
+        return new PaginatedFlowable<>(new PaginatedFlowable.PageLoader<DataSnapshot, T>() {
+            @NonNull
+            @Override
+            public Single<PaginatedFlowable.Page<DataSnapshot, T>> load(@Nullable final DataSnapshot cursor) {
+                final int limit = cursor == null ? pageSize : pageSize + 1;
+                Query page;
+                if (reverse) {
+                    page = cursor == null ? ordered : endAt(ordered, orderByChild, cursor);
+                    page = page.limitToLast(limit);
+                } else {
+                    page = cursor == null ? ordered : startAt(ordered, orderByChild, cursor);
+                    page = page.limitToFirst(limit);
+                }
+                return observeSingleValueEvent(page)
+                    .map(new Function<DataSnapshot, PaginatedFlowable.Page<DataSnapshot, T>>() {
+                        @Override
+                        public PaginatedFlowable.Page<DataSnapshot, T> apply(DataSnapshot dataSnapshot) throws Exception {
+                            List<DataSnapshot> children = new ArrayList<>(limit);
+                            for (DataSnapshot child : dataSnapshot.getChildren()) {
+                                children.add(child);
+                            }
+                            if (reverse) Collections.reverse(children);
+                            boolean lastPage = children.size() < limit;
+                            if (cursor != null && !children.isEmpty()
+                                && cursor.getKey().equals(children.get(0).getKey())) {
+                                children.remove(0);
+                            }
+                            List<T> items = new ArrayList<>(children.size());
+                            for (DataSnapshot child : children) {
+                                items.add(mapper.apply(child));
+                            }
+                            DataSnapshot next = lastPage || children.isEmpty() ? null : children.get(children.size() - 1);
+                            return new PaginatedFlowable.Page<>(items, next);
+                        }
+                    })
+                    .toSingle(new PaginatedFlowable.Page<DataSnapshot, T>(Collections.<T>emptyList(), null));
+            }
+        }, 0);
+    }
+
+    private static Query startAt(Query query, @Nullable String orderByChild, DataSnapshot cursor) {
+        if (orderByChild == null) return query.startAt(cursor.getKey());
+        Object value = cursor.child(orderByChild).getValue();
+        if (value instanceof Boolean) return query.startAt((Boolean) value, cursor.getKey());
+        if (value instanceof Number) return query.startAt(((Number) value).doubleValue(), cursor.getKey());
+        return query.startAt(value != null ? value.toString() : null, cursor.getKey());
+    }
+
+    private static Query endAt(Query query, @Nullable String orderByChild, DataSnapshot cursor) {
+        if (orderByChild == null) return query.endAt(cursor.getKey());
+        Object value = cursor.child(orderByChild).getValue();
+        if (value instanceof Boolean) return query.endAt((Boolean) value, cursor.getKey());
+        if (value instanceof Number) return query.endAt(((Number) value).doubleValue(), cursor.getKey());
+        return query.endAt(value != null ? value.toString() : null, cursor.getKey());
+    }
+
+    /**
+     * Child events of the given query where the initial children come as a single list, detected through a
+     * single value event which the database raises after the child events of the same data, and every later
+     * event comes as a list of its own.
+     */
+    private static Observable<List<RxFirebaseChildEvent<DataSnapshot>>> observeChildEventBatches(@NonNull final Query query) {
+        return Observable.create(new ObservableOnSubscribe<List<RxFirebaseChildEvent<DataSnapshot>>>() {
+            @Override
+            public void subscribe(final ObservableEmitter<List<RxFirebaseChildEvent<DataSnapshot>>> emitter) throws Exception {
+                final List<RxFirebaseChildEvent<DataSnapshot>> initialEvents = new ArrayList<>();
+                final boolean[] initialLoaded = {false};
+                final ChildEventListener childEventListener = new ChildEventListener() {
+
+                    @Override
+                    public void onChildAdded(DataSnapshot dataSnapshot, String previousChildName) {
+                        dispatch(new RxFirebaseChildEvent<>(dataSnapshot.getKey(), dataSnapshot, previousChildName,
+                            RxFirebaseChildEvent.EventType.ADDED));
+                    }
+
+                    @Override
+                    public void onChildChanged(DataSnapshot dataSnapshot, String previousChildName) {
+                        dispatch(new RxFirebaseChildEvent<>(dataSnapshot.getKey(), dataSnapshot, previousChildName,
+                            RxFirebaseChildEvent.EventType.CHANGED));
+                    }
+
+                    @Override
+                    public void onChildRemoved(DataSnapshot dataSnapshot) {
+                        dispatch(new RxFirebaseChildEvent<>(dataSnapshot.getKey(), dataSnapshot,
+                            RxFirebaseChildEvent.EventType.REMOVED));
+                    }
+
+                    @Override
+                    public void onChildMoved(DataSnapshot dataSnapshot, String previousChildName) {
+                        dispatch(new RxFirebaseChildEvent<>(dataSnapshot.getKey(), dataSnapshot, previousChildName,
+                            RxFirebaseChildEvent.EventType.MOVED));
+                    }
+
+                    @Override
+                    public void onCancelled(DatabaseError error) {
+                        if (!emitter.isDisposed())
+                            emitter.onError(new RxFirebaseDataException(error));
+                    }
+
+                    private void dispatch(RxFirebaseChildEvent<DataSnapshot> event) {
+                        synchronized (initialEvents) {
+                            if (!initialLoaded[0]) {
+                                initialEvents.add(event);
+                                return;
+                            }
+                        }
+                        emitter.onNext(Collections.singletonList(event));
+                    }
+                };
+                final ValueEventListener initialLoadListener = new ValueEventListener() {
+                    @Override
+                    public void onDataChange(DataSnapshot dataSnapshot) {
+                        List<RxFirebaseChildEvent<DataSnapshot>> batch;
+                        synchronized (initialEvents) {
+                            initialLoaded[0] = true;
+                            batch = new ArrayList<>(initialEvents);
+                            initialEvents.clear();
+                        }
+                        emitter.onNext(batch);
+                    }
+
+                    @Override
+                    public void onCancelled(DatabaseError error) {
+                        if (!emitter.isDisposed())
+                            emitter.onError(new RxFirebaseDataException(error));
+                    }
+                };
+                emitter.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() throws Exception {
+                        query.removeEventListener(childEventListener);
+                        query.removeEventListener(initialLoadListener);
+                    }
+                });
+                query.addChildEventListener(childEventListener);
+                query.addListenerForSingleValueEvent(initialLoadListener);
+            }
+        });
+    }
+
+    /**
+     * Apply the given mapper, moving to the {@link RxFirebasePlugins#getMappingScheduler() mapping scheduler} first
+     * when one is set.
+     */
+    private static <T, R> Flowable<R> mapOnScheduler(Flowable<T> source, Function<? super T, ? extends R> mapper) {
+        return mapOnScheduler(source, mapper, RxFirebasePlugins.getMappingBufferSize());
+    }
+
+    private static <T, R> Flowable<R> mapOnScheduler(Flowable<T> source, Function<? super T, ? extends R> mapper,
+                                                     int bufferSize) {
+        Scheduler scheduler = RxFirebasePlugins.getMappingScheduler();
+        if (scheduler != null) {
+            source = source.observeOn(scheduler, false, bufferSize);
+        }
+        return source.map(mapper);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,76 @@
+package durdinapps.rxfirebase2;
+
+import androidx.annotation.NonNull;
+
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.ServerValue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Completable;
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Sums the increments of numeric locations under the same root in memory and writes the sums periodically, as
+ * one {@link ServerValue#increment(long)} per location in a single multi-path
+ * {@link DatabaseReference#updateChildren(Map)} on the root. Meant for counters which don't need to be up to date
+ * right away, e.g. analytics, so each event doesn't cost a write.
+ * <p>
+ * The sums of a failed write are kept and sent by the next flush.
+ */
+public class RxFirebaseDatabaseIncrementAccumulator extends IncrementAccumulator<DatabaseReference> {
+
+    private final DatabaseReference root;
+
+    /**
+     * @param root      reference under which every accumulated location is.
+     * @param interval  time the first pending increment waits before the sums are written.
+     * @param unit      the unit of time of the interval.
+     * @param threshold number of pending increments which writes the sums without waiting for the interval.
+     */
+    public RxFirebaseDatabaseIncrementAccumulator(@NonNull DatabaseReference root, long interval,
+                                                  @NonNull TimeUnit unit, int threshold) {
+        this(root, interval, unit, threshold, Schedulers.computation());
+    }
+
+    /**
+     * @param root      reference under which every accumulated location is.
+     * @param interval  time the first pending increment waits before the sums are written.
+     * @param unit      the unit of time of the interval.
+     * @param threshold number of pending increments which writes the sums without waiting for the interval.
+     * @param scheduler {@link Scheduler} where the interval is timed.
+     */
+    public RxFirebaseDatabaseIncrementAccumulator(@NonNull DatabaseReference root, long interval,
+                                                  @NonNull TimeUnit unit, int threshold,
+                                                  @NonNull Scheduler scheduler) {
+        super(interval, unit, threshold, scheduler);
+        this.root = root;
+    }
+
+    /**
+     * Add the given value to the given location with the next write.
+     *
+     * @param ref   reference under the root of this accumulator.
+     * @param delta value to add, negative to decrement.
+     * @throws IllegalArgumentException if the reference is not below the root, since its sum could never be written.
+     */
+    public void increment(@NonNull DatabaseReference ref, long delta) {
+        if (ref.equals(root)) throw new IllegalArgumentException(ref + " is the root of the accumulator");
+        RxFirebaseDatabaseWriteCoalescer.pathOf(root, ref);
+        add(ref, delta);
+    }
+
+    @NonNull
+    @Override
+    Completable write(@NonNull Map<DatabaseReference, Long> deltas) {
+        Map<String, Object> updates = new LinkedHashMap<>();
+        for (Map.Entry<DatabaseReference, Long> delta : deltas.entrySet()) {
+            updates.put(RxFirebaseDatabaseWriteCoalescer.pathOf(root, delta.getKey()),
+                ServerValue.increment(delta.getValue()));
+        }
+        return RxFirebaseDatabase.updateChildren(root, updates);
+    }
+}
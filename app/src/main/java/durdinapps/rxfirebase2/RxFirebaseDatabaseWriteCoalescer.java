@@ -0,0 +1,213 @@
+package durdinapps.rxfirebase2;
+
+import androidx.annotation.NonNull;
+
+import com.google.firebase.database.DatabaseReference;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Completable;
+import io.reactivex.CompletableSource;
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.CompletableSubject;
+
+/**
+ * Merges the setValue and updateChildren calls done under the same root within a time window into a single
+ * multi-path {@link DatabaseReference#updateChildren(Map)} on the root. Every merged call completes with the result
+ * of that update.
+ * <p>
+ * The window starts with the first write, and the last value written to a path wins, replacing the pending writes
+ * below it. A write below a pending path can't be part of the same multi-path update, so it sends the pending
+ * writes first. Writes are sent while holding the pending ones, so they reach the client in the order they leave
+ * the window. A write to the root itself replaces every pending write and is sent as a
+ * {@link DatabaseReference#setValue(Object)} on the root, since a multi-path update can't target its own
+ * location. Once merged, a write is sent even if its {@link Completable} is disposed.
+ */
+public class RxFirebaseDatabaseWriteCoalescer {
+
+    private static final String ROOT = "/";
+
+    private final DatabaseReference root;
+    private final long window;
+    private final TimeUnit unit;
+    private final Scheduler scheduler;
+    private final Object lock = new Object();
+    private PendingWrites pending;
+
+    /**
+     * @param root   reference under which every merged write is done.
+     * @param window time pending writes wait for more writes.
+     * @param unit   the unit of time of the window.
+     */
+    public RxFirebaseDatabaseWriteCoalescer(@NonNull DatabaseReference root, long window, @NonNull TimeUnit unit) {
+        this(root, window, unit, Schedulers.computation());
+    }
+
+    /**
+     * @param root      reference under which every merged write is done.
+     * @param window    time pending writes wait for more writes.
+     * @param unit      the unit of time of the window.
+     * @param scheduler {@link Scheduler} where the window is timed.
+     */
+    public RxFirebaseDatabaseWriteCoalescer(@NonNull DatabaseReference root, long window, @NonNull TimeUnit unit,
+                                            @NonNull Scheduler scheduler) {
+        this.root = root;
+        this.window = window;
+        this.unit = unit;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Set the given value at the given location once the window closes.
+     *
+     * @param ref   reference under the root of this coalescer.
+     * @param value value to update.
+     * @return a {@link Completable} which completes when the merged update is done.
+     */
+    @NonNull
+    public Completable setValue(@NonNull final DatabaseReference ref, final Object value) {
+        return Completable.defer(new Callable<CompletableSource>() {
+            @Override
+            public CompletableSource call() {
+                Map<String, Object> writes = new LinkedHashMap<>();
+                writes.put(pathOf(ref), value);
+                return enqueue(writes);
+            }
+        });
+    }
+
+    /**
+     * Update the given children of the given location once the window closes.
+     *
+     * @param ref        reference under the root of this coalescer.
+     * @param updateData paths relative to the given reference and the values to write on them.
+     * @return a {@link Completable} which completes when the merged update is done.
+     */
+    @NonNull
+    public Completable updateChildren(@NonNull final DatabaseReference ref,
+                                      @NonNull final Map<String, Object> updateData) {
+        return Completable.defer(new Callable<CompletableSource>() {
+            @Override
+            public CompletableSource call() {
+                String path = pathOf(ref);
+                Map<String, Object> writes = new LinkedHashMap<>();
+                for (Map.Entry<String, Object> entry : updateData.entrySet()) {
+                    writes.put(join(path, entry.getKey()), entry.getValue());
+                }
+                return enqueue(writes);
+            }
+        });
+    }
+
+    /**
+     * Sends the pending writes without waiting for the window to close.
+     */
+    public void flush() {
+        synchronized (lock) {
+            PendingWrites writes = pending;
+            pending = null;
+            if (writes != null) writes.send();
+        }
+    }
+
+    private Completable enqueue(Map<String, Object> writes) {
+        PendingWrites conflicting = null;
+        PendingWrites current;
+        synchronized (lock) {
+            if (pending != null && pending.hasAncestorOf(writes.keySet())) {
+                conflicting = pending;
+                pending = null;
+            }
+            if (pending == null) {
+                pending = new PendingWrites();
+                final PendingWrites scheduled = pending;
+                scheduler.scheduleDirect(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (lock) {
+                            if (pending != scheduled) return;
+                            pending = null;
+                            scheduled.send();
+                        }
+                    }
+                }, window, unit);
+            }
+            current = pending;
+            for (Map.Entry<String, Object> write : writes.entrySet()) {
+                current.put(write.getKey(), write.getValue());
+            }
+            if (conflicting != null) conflicting.send();
+        }
+        return current.result;
+    }
+
+    private String pathOf(DatabaseReference ref) {
+        return pathOf(root, ref);
+    }
+
+    /**
+     * @return the path of the given reference relative to the given root.
+     */
+    static String pathOf(DatabaseReference root, DatabaseReference ref) {
+        StringBuilder path = new StringBuilder();
+        DatabaseReference current = ref;
+        while (current != null && !current.equals(root)) {
+            path.insert(0, "/" + current.getKey());
+            current = current.getParent();
+        }
+        if (current == null) throw new IllegalArgumentException(ref + " is not under " + root);
+        return path.length() == 0 ? ROOT : path.toString();
+    }
+
+    private static String join(String path, String child) {
+        String trimmed = child.startsWith("/") ? child.substring(1) : child;
+        return path.endsWith("/") ? path + trimmed : path + "/" + trimmed;
+    }
+
+    private static boolean isAncestor(String ancestor, String path) {
+        return ancestor.equals(ROOT) ? !path.equals(ROOT) : path.startsWith(ancestor + "/");
+    }
+
+    private final class PendingWrites {
+        private final Map<String, Object> writes = new LinkedHashMap<>();
+        private final CompletableSubject result = CompletableSubject.create();
+
+        /**
+         * @return true if any pending path is above one of the given paths.
+         */
+        boolean hasAncestorOf(Iterable<String> paths) {
+            for (String path : paths) {
+                for (String pendingPath : writes.keySet()) {
+                    if (isAncestor(pendingPath, path)) return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Write the given value, dropping the pending writes below its path which it replaces.
+         */
+        void put(String path, Object value) {
+            Iterator<String> pendingPaths = writes.keySet().iterator();
+            while (pendingPaths.hasNext()) {
+                if (isAncestor(path, pendingPaths.next())) pendingPaths.remove();
+            }
+            writes.remove(path);
+            writes.put(path, value);
+        }
+
+        void send() {
+            // A root write drops every pending path below it and sends the later ones first, so it is alone here.
+            if (writes.containsKey(ROOT)) {
+                RxFirebaseDatabase.setValue(root, writes.get(ROOT)).subscribe(result);
+            } else {
+                RxFirebaseDatabase.updateChildren(root, writes).subscribe(result);
+            }
+        }
+    }
+}
@@ -3,8 +3,6 @@ package durdinapps.rxfirebase2;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import com.google.android.gms.tasks.OnFailureListener;
-import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.firebase.functions.FirebaseFunctions;
 import com.google.firebase.functions.HttpsCallableResult;
 
@@ -29,20 +27,7 @@ public class RxFirebaseFunctions {
         return Single.create(new SingleOnSubscribe<HttpsCallableResult>() {
             @Override
             public void subscribe(final SingleEmitter<HttpsCallableResult> emitter) {
-                functions.getHttpsCallable(name)
-                    .call(data)
-                    .addOnSuccessListener(new OnSuccessListener<HttpsCallableResult>() {
-                        @Override
-                        public void onSuccess(HttpsCallableResult httpsCallableResult) {
-                            emitter.onSuccess(httpsCallableResult);
-                        }
-                    })
-                    .addOnFailureListener(new OnFailureListener() {
-                        @Override
-                        public void onFailure(@NonNull Exception e) {
-                            emitter.onError(e);
-                        }
-                    });
+                RxSingleHandler.assignOnTask(emitter, functions.getHttpsCallable(name).call(data));
             }
         });
     }
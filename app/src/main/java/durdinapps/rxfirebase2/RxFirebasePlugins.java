@@ -0,0 +1,92 @@
+package durdinapps.rxfirebase2;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.tasks.Task;
+
+import java.util.concurrent.Executor;
+
+import io.reactivex.Flowable;
+import io.reactivex.Scheduler;
+
+/**
+ * Library wide settings used by the RxFirebase operators when a call doesn't specify its own.
+ */
+public final class RxFirebasePlugins {
+
+    @Nullable
+    private static volatile Executor callbackExecutor;
+
+    @Nullable
+    private static volatile Scheduler mappingScheduler;
+
+    private static volatile int mappingBufferSize = Flowable.bufferSize();
+
+    private RxFirebasePlugins() {
+    }
+
+    /**
+     * Set the {@link Executor} used to deliver the success, failure and complete callbacks of every {@link Task}
+     * based operation. Everything mapped downstream runs on that executor too, so heavy mappers can be kept away
+     * from the main thread without an extra observeOn hop.
+     *
+     * @param executor executor for the {@link Task} callbacks, or null to use the Firebase default (main thread).
+     */
+    public static void setCallbackExecutor(@Nullable Executor executor) {
+        callbackExecutor = executor;
+    }
+
+    /**
+     * @return the {@link Executor} used for the {@link Task} callbacks, or null if the Firebase default is used.
+     */
+    @Nullable
+    public static Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    /**
+     * Set the {@link Scheduler} where the realtime database listeners hand their raw snapshots before applying
+     * a mapper, e.g. {@link DataSnapshotMapper}. The listener callback only enqueues the snapshot, so big nodes
+     * are deserialized away from the main thread.
+     *
+     * @param scheduler scheduler for the mapping step, or null to map inline on the listener thread.
+     */
+    public static void setMappingScheduler(@Nullable Scheduler scheduler) {
+        mappingScheduler = scheduler;
+    }
+
+    /**
+     * @return the {@link Scheduler} used for the mapping step, or null if mapping runs on the listener thread.
+     */
+    @Nullable
+    public static Scheduler getMappingScheduler() {
+        return mappingScheduler;
+    }
+
+    /**
+     * Set how many raw snapshots can be queued for the mapping {@link Scheduler} before the
+     * {@link io.reactivex.BackpressureStrategy} of the listener applies.
+     *
+     * @param bufferSize maximum number of queued snapshots.
+     */
+    public static void setMappingBufferSize(int bufferSize) {
+        if (bufferSize <= 0) throw new IllegalArgumentException("bufferSize > 0 required but it was " + bufferSize);
+        mappingBufferSize = bufferSize;
+    }
+
+    /**
+     * @return the maximum number of snapshots queued for the mapping {@link Scheduler}.
+     */
+    public static int getMappingBufferSize() {
+        return mappingBufferSize;
+    }
+
+    /**
+     * Restore every setting to its default value.
+     */
+    public static void reset() {
+        callbackExecutor = null;
+        mappingScheduler = null;
+        mappingBufferSize = Flowable.bufferSize();
+    }
+}
@@ -0,0 +1,131 @@
+package durdinapps.rxfirebase2;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.MutableData;
+import com.google.firebase.database.Transaction;
+
+import java.util.Random;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Flowable;
+import io.reactivex.Single;
+import io.reactivex.functions.Function;
+
+/**
+ * Counter spread across a number of shard children of a database location, {@code "0"} to {@code "N-1"}, so
+ * concurrent increments run their transactions on different nodes instead of retrying on the same one. The value
+ * of the counter is the sum of its shards.
+ * <p>
+ * The number of shards can change later, every child of the location is still part of the sum.
+ */
+public class RxFirebaseShardedCounter {
+
+    private static final Function<DataSnapshot, Long> SUM_OF_SHARDS = new Function<DataSnapshot, Long>() {
+        @Override
+        public Long apply(DataSnapshot dataSnapshot) {
+            long sum = 0;
+            for (DataSnapshot shard : dataSnapshot.getChildren()) {
+                Long value = shard.getValue(Long.class);
+                if (value != null) sum += value;
+            }
+            return sum;
+        }
+    };
+
+    private final DatabaseReference ref;
+    private final int shards;
+    private final RxFirebaseBackoffPolicy backoff;
+    private final Random random = new Random();
+
+    /**
+     * @param ref    location which holds the shards of the counter and nothing else.
+     * @param shards number of shards.
+     */
+    public RxFirebaseShardedCounter(@NonNull DatabaseReference ref, int shards) {
+        this(ref, shards, null);
+    }
+
+    /**
+     * @param ref     location which holds the shards of the counter and nothing else.
+     * @param shards  number of shards.
+     * @param backoff policy to retry the increments which fail because of contention, or null to fail.
+     */
+    public RxFirebaseShardedCounter(@NonNull DatabaseReference ref, int shards,
+                                    @Nullable RxFirebaseBackoffPolicy backoff) {
+        if (shards <= 0) throw new IllegalArgumentException("shards > 0 required but it was " + shards);
+        this.ref = ref;
+        this.shards = shards;
+        this.backoff = backoff;
+    }
+
+    /**
+     * Add the given value to a random shard.
+     *
+     * @param delta value to add, negative to decrement.
+     * @return a {@link Single} which emits the {@link RxFirebaseTransactionResult} of the shard transaction.
+     */
+    @NonNull
+    public Single<RxFirebaseTransactionResult> increment(long delta) {
+        int shard;
+        synchronized (random) {
+            shard = random.nextInt(shards);
+        }
+        return increment(shard, delta);
+    }
+
+    /**
+     * Add the given value to the shard of the given client, so each client keeps writing on the same shard.
+     *
+     * @param delta    value to add, negative to decrement.
+     * @param clientId stable id of the client, e.g. the user id.
+     * @return a {@link Single} which emits the {@link RxFirebaseTransactionResult} of the shard transaction.
+     */
+    @NonNull
+    public Single<RxFirebaseTransactionResult> increment(long delta, @NonNull String clientId) {
+        return increment((clientId.hashCode() & Integer.MAX_VALUE) % shards, delta);
+    }
+
+    /**
+     * @return a {@link Single} which emits the sum of the shards, 0 if there is none.
+     */
+    @NonNull
+    public Single<Long> getCount() {
+        return RxFirebaseDatabase.observeSingleValueEvent(ref, SUM_OF_SHARDS).toSingle(0L);
+    }
+
+    /**
+     * Listen to the shards and emit their sum every time it changes.
+     *
+     * @return a {@link Flowable} which emits the value of the counter.
+     */
+    @NonNull
+    public Flowable<Long> observeCount() {
+        return RxFirebaseDatabase.observeValueEvent(ref, BackpressureStrategy.LATEST)
+            .map(SUM_OF_SHARDS)
+            .distinctUntilChanged();
+    }
+
+    /**
+     * @param shard index of the shard.
+     * @return the location of the given shard.
+     */
+    @NonNull
+    public DatabaseReference getShard(int shard) {
+        return ref.child(String.valueOf(shard));
+    }
+
+    private Single<RxFirebaseTransactionResult> increment(int shard, final long delta) {
+        return RxFirebaseDatabase.runTransaction(getShard(shard), new Function<MutableData, Transaction.Result>() {
+            @Override
+            public Transaction.Result apply(MutableData mutableData) {
+                Long currentValue = mutableData.getValue(Long.class);
+                mutableData.setValue(currentValue == null ? delta : currentValue + delta);
+                return Transaction.success(mutableData);
+            }
+        }, true, backoff);
+    }
+}
@@ -0,0 +1,45 @@
+package durdinapps.rxfirebase2;
+
+import androidx.annotation.NonNull;
+
+import com.google.firebase.database.DataSnapshot;
+
+/**
+ * {@link DataSnapshot} emitted by {@link RxFirebaseDatabase#getValueFromCacheThenServer}, telling which phase of
+ * the read it comes from: the local phase, which doesn't wait for the server read, or the server phase.
+ */
+public class RxFirebaseSnapshot {
+
+    private final DataSnapshot snapshot;
+    private final boolean local;
+
+    RxFirebaseSnapshot(@NonNull DataSnapshot snapshot, boolean local) {
+        this.snapshot = snapshot;
+        this.local = local;
+    }
+
+    @NonNull
+    public DataSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * The database doesn't tell where a value event comes from. When the location is cached the local phase value
+     * is read from the cache and may be stale, but when nothing is cached the local listener waits for the server
+     * itself, so that value is current even though it is still reported as local. A local value which the server
+     * read confirms isn't emitted again.
+     *
+     * @return true if the snapshot is the local phase value, false if it was read from the server.
+     */
+    public boolean isLocal() {
+        return local;
+    }
+
+    @Override
+    public String toString() {
+        return "RxFirebaseSnapshot{" +
+            "snapshot=" + snapshot +
+            ", local=" + local +
+            '}';
+    }
+}
@@ -3,8 +3,6 @@ package durdinapps.rxfirebase2;
 import android.net.Uri;
 import androidx.annotation.NonNull;
 
-import com.google.android.gms.tasks.OnFailureListener;
-import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.firebase.storage.FileDownloadTask;
 import com.google.firebase.storage.StorageMetadata;
 import com.google.firebase.storage.StorageReference;
@@ -14,6 +12,7 @@ import com.google.firebase.storage.UploadTask;
 
 import java.io.File;
 import java.io.InputStream;
+import java.util.concurrent.Executor;
 
 import io.reactivex.Completable;
 import io.reactivex.CompletableEmitter;
@@ -34,7 +33,7 @@ public class RxFirebaseStorage {
      * @param storageRef           represents a reference to a Google Cloud Storage object.
      * @param maxDownloadSizeBytes the maximum allowed size in bytes that will be allocated. Set this parameter to prevent out of memory conditions from occurring.
      *                             If the download exceeds this limit, the task will fail and an IndexOutOfBoundsException will be returned.
-     * @return a {@link Single} which emits an byte[] if success.
+     * @return a {@link Maybe} which emits an byte[] if success.
      */
     @NonNull
     public static Maybe<byte[]> getBytes(@NonNull final StorageReference storageRef,
@@ -47,11 +46,32 @@ public class RxFirebaseStorage {
         });
     }
 
+    /**
+     * Asynchronously downloads the object from this {@link StorageReference} a byte array will be allocated large enough to hold the entire file in memory.
+     *
+     * @param storageRef           represents a reference to a Google Cloud Storage object.
+     * @param maxDownloadSizeBytes the maximum allowed size in bytes that will be allocated. Set this parameter to prevent out of memory conditions from occurring.
+     *                             If the download exceeds this limit, the task will fail and an IndexOutOfBoundsException will be returned.
+     * @param executor             the executor to use to call the task listeners.
+     * @return a {@link Maybe} which emits an byte[] if success.
+     */
+    @NonNull
+    public static Maybe<byte[]> getBytes(@NonNull final StorageReference storageRef,
+                                         final long maxDownloadSizeBytes,
+                                         @NonNull final Executor executor) {
+        return Maybe.create(new MaybeOnSubscribe<byte[]>() {
+            @Override
+            public void subscribe(MaybeEmitter<byte[]> emitter) throws Exception {
+                RxHandler.assignOnTask(emitter, storageRef.getBytes(maxDownloadSizeBytes), executor);
+            }
+        });
+    }
+
     /**
      * Asynchronously retrieves a long lived download URL with a revocable token.
      *
      * @param storageRef represents a reference to a Google Cloud Storage object.
-     * @return a {@link Single} which emits an {@link Uri} if success.
+     * @return a {@link Maybe} which emits an {@link Uri} if success.
      */
     @NonNull
     public static Maybe<Uri> getDownloadUrl(@NonNull final StorageReference storageRef) {
@@ -63,6 +83,24 @@ public class RxFirebaseStorage {
         });
     }
 
+    /**
+     * Asynchronously retrieves a long lived download URL with a revocable token.
+     *
+     * @param storageRef represents a reference to a Google Cloud Storage object.
+     * @param executor   the executor to use to call the task listeners.
+     * @return a {@link Maybe} which emits an {@link Uri} if success.
+     */
+    @NonNull
+    public static Maybe<Uri> getDownloadUrl(@NonNull final StorageReference storageRef,
+                                            @NonNull final Executor executor) {
+        return Maybe.create(new MaybeOnSubscribe<Uri>() {
+            @Override
+            public void subscribe(MaybeEmitter<Uri> emitter) throws Exception {
+                RxHandler.assignOnTask(emitter, storageRef.getDownloadUrl(), executor);
+            }
+        });
+    }
+
     /**
      * Asynchronously downloads the object at this {@link StorageReference} to a specified system filepath.
      *
@@ -75,26 +113,14 @@ public class RxFirebaseStorage {
                                                                 @NonNull final File destinationFile) {
         return Single.create(new SingleOnSubscribe<FileDownloadTask.TaskSnapshot>() {
             public void subscribe(final SingleEmitter<FileDownloadTask.TaskSnapshot> emitter) throws Exception {
-                final StorageTask<FileDownloadTask.TaskSnapshot> taskSnapshotStorageTask =
-                    storageRef.getFile(destinationFile).addOnSuccessListener(new OnSuccessListener<FileDownloadTask.TaskSnapshot>() {
-                        @Override
-                        public void onSuccess(FileDownloadTask.TaskSnapshot taskSnapshot) {
-                            emitter.onSuccess(taskSnapshot);
-                        }
-                    }).addOnFailureListener(new OnFailureListener() {
-                        @Override
-                        public void onFailure(@NonNull Exception e) {
-                            if (!emitter.isDisposed())
-                            emitter.onError(e);
-                        }
-                    });
-
+                final StorageTask<FileDownloadTask.TaskSnapshot> taskSnapshotStorageTask = storageRef.getFile(destinationFile);
                 emitter.setCancellable(new Cancellable() {
                     @Override
                     public void cancel() throws Exception {
                         taskSnapshotStorageTask.cancel();
                     }
                 });
+                RxSingleHandler.assignOnTask(emitter, taskSnapshotStorageTask);
             }
         });
     }
@@ -111,26 +137,14 @@ public class RxFirebaseStorage {
                                                                 @NonNull final Uri destinationUri) {
         return Single.create(new SingleOnSubscribe<FileDownloadTask.TaskSnapshot>() {
             public void subscribe(final SingleEmitter<FileDownloadTask.TaskSnapshot> emitter) throws Exception {
-                final StorageTask<FileDownloadTask.TaskSnapshot> taskSnapshotStorageTask =
-                    storageRef.getFile(destinationUri).addOnSuccessListener(new OnSuccessListener<FileDownloadTask.TaskSnapshot>() {
-                        @Override
-                        public void onSuccess(FileDownloadTask.TaskSnapshot taskSnapshot) {
-                            emitter.onSuccess(taskSnapshot);
-                        }
-                    }).addOnFailureListener(new OnFailureListener() {
-                        @Override
-                        public void onFailure(@NonNull Exception e) {
-                            if (!emitter.isDisposed())
-                            emitter.onError(e);
-                        }
-                    });
-
+                final StorageTask<FileDownloadTask.TaskSnapshot> taskSnapshotStorageTask = storageRef.getFile(destinationUri);
                 emitter.setCancellable(new Cancellable() {
                     @Override
                     public void cancel() throws Exception {
                         taskSnapshotStorageTask.cancel();
                     }
                 });
+                RxSingleHandler.assignOnTask(emitter, taskSnapshotStorageTask);
             }
         });
     }
@@ -139,7 +153,7 @@ public class RxFirebaseStorage {
      * Retrieves metadata associated with an object at this {@link StorageReference}.
      *
      * @param storageRef represents a reference to a Google Cloud Storage object.
-     * @return a {@link Single} which emits an {@link StorageMetadata} if success.
+     * @return a {@link Maybe} which emits an {@link StorageMetadata} if success.
      */
     @NonNull
     public static Maybe<StorageMetadata> getMetadata(@NonNull final StorageReference storageRef) {
@@ -151,6 +165,24 @@ public class RxFirebaseStorage {
         });
     }
 
+    /**
+     * Retrieves metadata associated with an object at this {@link StorageReference}.
+     *
+     * @param storageRef represents a reference to a Google Cloud Storage object.
+     * @param executor   the executor to use to call the task listeners.
+     * @return a {@link Maybe} which emits an {@link StorageMetadata} if success.
+     */
+    @NonNull
+    public static Maybe<StorageMetadata> getMetadata(@NonNull final StorageReference storageRef,
+                                                      @NonNull final Executor executor) {
+        return Maybe.create(new MaybeOnSubscribe<StorageMetadata>() {
+            @Override
+            public void subscribe(MaybeEmitter<StorageMetadata> emitter) throws Exception {
+                RxHandler.assignOnTask(emitter, storageRef.getMetadata(), executor);
+            }
+        });
+    }
+
     /**
      * Asynchronously downloads the object at this {@link StorageReference} via a InputStream.
      *
@@ -161,26 +193,14 @@ public class RxFirebaseStorage {
     public static Single<StreamDownloadTask.TaskSnapshot> getStream(@NonNull final StorageReference storageRef) {
         return Single.create(new SingleOnSubscribe<StreamDownloadTask.TaskSnapshot>() {
             public void subscribe(final SingleEmitter<StreamDownloadTask.TaskSnapshot> emitter) throws Exception {
-                final StorageTask<StreamDownloadTask.TaskSnapshot> taskSnapshotStorageTask =
-                    storageRef.getStream().addOnSuccessListener(new OnSuccessListener<StreamDownloadTask.TaskSnapshot>() {
-                        @Override
-                        public void onSuccess(StreamDownloadTask.TaskSnapshot taskSnapshot) {
-                            emitter.onSuccess(taskSnapshot);
-                        }
-                    }).addOnFailureListener(new OnFailureListener() {
-                        @Override
-                        public void onFailure(@NonNull Exception e) {
-                            if (!emitter.isDisposed())
-                            emitter.onError(e);
-                        }
-                    });
-
+                final StorageTask<StreamDownloadTask.TaskSnapshot> taskSnapshotStorageTask = storageRef.getStream();
                 emitter.setCancellable(new Cancellable() {
                     @Override
                     public void cancel() throws Exception {
                         taskSnapshotStorageTask.cancel();
                     }
                 });
+                RxSingleHandler.assignOnTask(emitter, taskSnapshotStorageTask);
             }
         });
     }
@@ -199,26 +219,14 @@ public class RxFirebaseStorage {
                                                                     @NonNull final StreamDownloadTask.StreamProcessor processor) {
         return Single.create(new SingleOnSubscribe<StreamDownloadTask.TaskSnapshot>() {
             public void subscribe(final SingleEmitter<StreamDownloadTask.TaskSnapshot> emitter) throws Exception {
-                final StorageTask<StreamDownloadTask.TaskSnapshot> taskSnapshotStorageTask =
-                    storageRef.getStream(processor).addOnSuccessListener(new OnSuccessListener<StreamDownloadTask.TaskSnapshot>() {
-                        @Override
-                        public void onSuccess(StreamDownloadTask.TaskSnapshot taskSnapshot) {
-                            emitter.onSuccess(taskSnapshot);
-                        }
-                    }).addOnFailureListener(new OnFailureListener() {
-                        @Override
-                        public void onFailure(@NonNull Exception e) {
-                            if (!emitter.isDisposed())
-                            emitter.onError(e);
-                        }
-                    });
-
+                final StorageTask<StreamDownloadTask.TaskSnapshot> taskSnapshotStorageTask = storageRef.getStream(processor);
                 emitter.setCancellable(new Cancellable() {
                     @Override
                     public void cancel() throws Exception {
                         taskSnapshotStorageTask.cancel();
                     }
                 });
+                RxSingleHandler.assignOnTask(emitter, taskSnapshotStorageTask);
             }
         });
     }
@@ -235,25 +243,14 @@ public class RxFirebaseStorage {
                                                            @NonNull final byte[] bytes) {
         return Single.create(new SingleOnSubscribe<UploadTask.TaskSnapshot>() {
             public void subscribe(final SingleEmitter<UploadTask.TaskSnapshot> emitter) throws Exception {
-                final StorageTask<UploadTask.TaskSnapshot> taskSnapshotStorageTask =
-                    storageRef.putBytes(bytes).addOnSuccessListener(new OnSuccessListener<UploadTask.TaskSnapshot>() {
-                        @Override
-                        public void onSuccess(UploadTask.TaskSnapshot taskSnapshot) {
-                            emitter.onSuccess(taskSnapshot);
-                        }
-                    }).addOnFailureListener(new OnFailureListener() {
-                        @Override
-                        public void onFailure(@NonNull Exception e) {
-                            if (!emitter.isDisposed())
-                            emitter.onError(e);
-                        }
-                    });
+                final StorageTask<UploadTask.TaskSnapshot> taskSnapshotStorageTask = storageRef.putBytes(bytes);
                 emitter.setCancellable(new Cancellable() {
                     @Override
                     public void cancel() throws Exception {
                         taskSnapshotStorageTask.cancel();
                     }
                 });
+                RxSingleHandler.assignOnTask(emitter, taskSnapshotStorageTask);
             }
         });
     }
@@ -272,26 +269,14 @@ public class RxFirebaseStorage {
                                                            @NonNull final StorageMetadata metadata) {
         return Single.create(new SingleOnSubscribe<UploadTask.TaskSnapshot>() {
             public void subscribe(final SingleEmitter<UploadTask.TaskSnapshot> emitter) throws Exception {
-                final StorageTask<UploadTask.TaskSnapshot> taskSnapshotStorageTask =
-                    storageRef.putBytes(bytes, metadata).addOnSuccessListener(new OnSuccessListener<UploadTask.TaskSnapshot>() {
-                        @Override
-                        public void onSuccess(UploadTask.TaskSnapshot taskSnapshot) {
-                            emitter.onSuccess(taskSnapshot);
-                        }
-                    }).addOnFailureListener(new OnFailureListener() {
-                        @Override
-                        public void onFailure(@NonNull Exception e) {
-                            if (!emitter.isDisposed())
-                            emitter.onError(e);
-                        }
-                    });
-
+                final StorageTask<UploadTask.TaskSnapshot> taskSnapshotStorageTask = storageRef.putBytes(bytes, metadata);
                 emitter.setCancellable(new Cancellable() {
                     @Override
                     public void cancel() throws Exception {
                         taskSnapshotStorageTask.cancel();
                     }
                 });
+                RxSingleHandler.assignOnTask(emitter, taskSnapshotStorageTask);
             }
         });
     }
@@ -308,26 +293,14 @@ public class RxFirebaseStorage {
                                                           @NonNull final Uri uri) {
         return Single.create(new SingleOnSubscribe<UploadTask.TaskSnapshot>() {
             public void subscribe(final SingleEmitter<UploadTask.TaskSnapshot> emitter) throws Exception {
-                final StorageTask<UploadTask.TaskSnapshot> taskSnapshotStorageTask =
-                    storageRef.putFile(uri).addOnSuccessListener(new OnSuccessListener<UploadTask.TaskSnapshot>() {
-                        @Override
-                        public void onSuccess(UploadTask.TaskSnapshot taskSnapshot) {
-                            emitter.onSuccess(taskSnapshot);
-                        }
-                    }).addOnFailureListener(new OnFailureListener() {
-                        @Override
-                        public void onFailure(@NonNull Exception e) {
-                            if (!emitter.isDisposed())
-                            emitter.onError(e);
-                        }
-                    });
-
+                final StorageTask<UploadTask.TaskSnapshot> taskSnapshotStorageTask = storageRef.putFile(uri);
                 emitter.setCancellable(new Cancellable() {
                     @Override
                     public void cancel() throws Exception {
                         taskSnapshotStorageTask.cancel();
                     }
                 });
+                RxSingleHandler.assignOnTask(emitter, taskSnapshotStorageTask);
             }
         });
     }
@@ -346,27 +319,14 @@ public class RxFirebaseStorage {
                                                           @NonNull final StorageMetadata metadata) {
         return Single.create(new SingleOnSubscribe<UploadTask.TaskSnapshot>() {
             public void subscribe(final SingleEmitter<UploadTask.TaskSnapshot> emitter) throws Exception {
-                final StorageTask<UploadTask.TaskSnapshot> taskSnapshotStorageTask =
-                    storageRef.putFile(uri, metadata)
-                        .addOnSuccessListener(new OnSuccessListener<UploadTask.TaskSnapshot>() {
-                            @Override
-                            public void onSuccess(UploadTask.TaskSnapshot taskSnapshot) {
-                                emitter.onSuccess(taskSnapshot);
-                            }
-                        }).addOnFailureListener(new OnFailureListener() {
-                        @Override
-                        public void onFailure(@NonNull Exception e) {
-                            if (!emitter.isDisposed())
-                            emitter.onError(e);
-                        }
-                    });
-
+                final StorageTask<UploadTask.TaskSnapshot> taskSnapshotStorageTask = storageRef.putFile(uri, metadata);
                 emitter.setCancellable(new Cancellable() {
                     @Override
                     public void cancel() throws Exception {
                         taskSnapshotStorageTask.cancel();
                     }
                 });
+                RxSingleHandler.assignOnTask(emitter, taskSnapshotStorageTask);
             }
         });
     }
@@ -387,27 +347,14 @@ public class RxFirebaseStorage {
                                                           @NonNull final Uri existingUploadUri) {
         return Single.create(new SingleOnSubscribe<UploadTask.TaskSnapshot>() {
             public void subscribe(final SingleEmitter<UploadTask.TaskSnapshot> emitter) throws Exception {
-                final StorageTask<UploadTask.TaskSnapshot> taskSnapshotStorageTask =
-                    storageRef.putFile(uri, metadata, existingUploadUri)
-                        .addOnSuccessListener(new OnSuccessListener<UploadTask.TaskSnapshot>() {
-                            @Override
-                            public void onSuccess(UploadTask.TaskSnapshot taskSnapshot) {
-                                emitter.onSuccess(taskSnapshot);
-                            }
-                        }).addOnFailureListener(new OnFailureListener() {
-                        @Override
-                        public void onFailure(@NonNull Exception e) {
-                            if (!emitter.isDisposed())
-                            emitter.onError(e);
-                        }
-                    });
-
+                final StorageTask<UploadTask.TaskSnapshot> taskSnapshotStorageTask = storageRef.putFile(uri, metadata, existingUploadUri);
                 emitter.setCancellable(new Cancellable() {
                     @Override
                     public void cancel() throws Exception {
                         taskSnapshotStorageTask.cancel();
                     }
                 });
+                RxSingleHandler.assignOnTask(emitter, taskSnapshotStorageTask);
             }
         });
     }
@@ -424,27 +371,14 @@ public class RxFirebaseStorage {
                                                             @NonNull final StorageMetadata metadata) {
         return Single.create(new SingleOnSubscribe<UploadTask.TaskSnapshot>() {
             public void subscribe(final SingleEmitter<UploadTask.TaskSnapshot> emitter) throws Exception {
-                final StorageTask<UploadTask.TaskSnapshot> taskSnapshotStorageTask =
-                    storageRef.putStream(stream, metadata)
-                        .addOnSuccessListener(new OnSuccessListener<UploadTask.TaskSnapshot>() {
-                            @Override
-                            public void onSuccess(UploadTask.TaskSnapshot taskSnapshot) {
-                                emitter.onSuccess(taskSnapshot);
-                            }
-                        }).addOnFailureListener(new OnFailureListener() {
-                        @Override
-                        public void onFailure(@NonNull Exception e) {
-                            if (!emitter.isDisposed())
-                            emitter.onError(e);
-                        }
-                    });
-
+                final StorageTask<UploadTask.TaskSnapshot> taskSnapshotStorageTask = storageRef.putStream(stream, metadata);
                 emitter.setCancellable(new Cancellable() {
                     @Override
                     public void cancel() throws Exception {
                         taskSnapshotStorageTask.cancel();
                     }
                 });
+                RxSingleHandler.assignOnTask(emitter, taskSnapshotStorageTask);
             }
         });
     }
@@ -461,26 +395,14 @@ public class RxFirebaseStorage {
                                                             @NonNull final InputStream stream) {
         return Single.create(new SingleOnSubscribe<UploadTask.TaskSnapshot>() {
             public void subscribe(final SingleEmitter<UploadTask.TaskSnapshot> emitter) throws Exception {
-                final StorageTask<UploadTask.TaskSnapshot> taskSnapshotStorageTask =
-                    storageRef.putStream(stream).addOnSuccessListener(new OnSuccessListener<UploadTask.TaskSnapshot>() {
-                        @Override
-                        public void onSuccess(UploadTask.TaskSnapshot taskSnapshot) {
-                            emitter.onSuccess(taskSnapshot);
-                        }
-                    }).addOnFailureListener(new OnFailureListener() {
-                        @Override
-                        public void onFailure(@NonNull Exception e) {
-                            if (!emitter.isDisposed())
-                            emitter.onError(e);
-                        }
-                    });
-
+                final StorageTask<UploadTask.TaskSnapshot> taskSnapshotStorageTask = storageRef.putStream(stream);
                 emitter.setCancellable(new Cancellable() {
                     @Override
                     public void cancel() throws Exception {
                         taskSnapshotStorageTask.cancel();
                     }
                 });
+                RxSingleHandler.assignOnTask(emitter, taskSnapshotStorageTask);
             }
         });
     }
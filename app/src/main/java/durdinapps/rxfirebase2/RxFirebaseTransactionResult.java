@@ -0,0 +1,59 @@
+package durdinapps.rxfirebase2;
+
+import androidx.annotation.Nullable;
+
+import com.google.firebase.database.DataSnapshot;
+
+/**
+ * Outcome of a database transaction run through {@link RxFirebaseDatabase#runTransaction}.
+ */
+public class RxFirebaseTransactionResult {
+
+    private final boolean committed;
+    private final DataSnapshot snapshot;
+    private final int attempts;
+
+    RxFirebaseTransactionResult(boolean committed, @Nullable DataSnapshot snapshot, int attempts) {
+        this.committed = committed;
+        this.snapshot = snapshot;
+        this.attempts = attempts;
+    }
+
+    /**
+     * @return true if the transaction was written, false if the handler aborted it.
+     */
+    public boolean isCommitted() {
+        return committed;
+    }
+
+    /**
+     * @return the data at the location once the transaction finished.
+     */
+    @Nullable
+    public DataSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return how many times the transaction handler ran, including the retries of the client when the data
+     * changed on the server and the retries of the backoff policy.
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * @return how many times the transaction handler ran again after the first run.
+     */
+    public int getRetries() {
+        return Math.max(0, attempts - 1);
+    }
+
+    @Override
+    public String toString() {
+        return "RxFirebaseTransactionResult{" +
+            "committed=" + committed +
+            ", attempts=" + attempts +
+            '}';
+    }
+}
@@ -0,0 +1,237 @@
+package durdinapps.rxfirebase2;
+
+import androidx.annotation.NonNull;
+
+import com.google.firebase.database.Query;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.MetadataChanges;
+
+import org.reactivestreams.Publisher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Flowable;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.SingleEmitter;
+import io.reactivex.SingleOnSubscribe;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.functions.Cancellable;
+import io.reactivex.functions.Function;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subscribers.DisposableSubscriber;
+
+/**
+ * Basic builder to warm up the database locations and Firestore documents the first screens need. Each one is
+ * listened to, a limited number at a time, and its listener is held for a while after its first snapshot. Until
+ * then, the {@link RxFirebaseDatabase#observeValueEvent} and {@link RxFirestore#observeDocumentRef} subscriptions
+ * on them get the data the client already has instead of waiting for the server.
+ */
+public class RxFirebaseWarmup {
+    private final List<Target> targets = new ArrayList<>();
+    private final CompositeDisposable held = new CompositeDisposable();
+    private int maxConcurrency = 4;
+    private long hold = 10;
+    private TimeUnit holdUnit = TimeUnit.SECONDS;
+    private Scheduler scheduler = Schedulers.computation();
+
+    private RxFirebaseWarmup() {
+    }
+
+    /**
+     * Retrieve a new instance for {@link RxFirebaseWarmup}.
+     */
+    public static RxFirebaseWarmup getInstance() {
+        return new RxFirebaseWarmup();
+    }
+
+    /**
+     * Warm up the given database location.
+     *
+     * @param query reference represents a particular location in your Database and can be used for reading or writing data to that Database location.
+     * @return the current instance of {@link RxFirebaseWarmup}.
+     */
+    @NonNull
+    public RxFirebaseWarmup query(@NonNull final Query query) {
+        targets.add(new Target(query.getRef().toString()) {
+            @Override
+            Flowable<?> listen() {
+                return RxFirebaseDatabase.observeValueEvent(query, BackpressureStrategy.LATEST);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Warm up the given Firestore document.
+     *
+     * @param ref The given Document reference.
+     * @return the current instance of {@link RxFirebaseWarmup}.
+     */
+    @NonNull
+    public RxFirebaseWarmup document(@NonNull final DocumentReference ref) {
+        targets.add(new Target(ref.getPath()) {
+            @Override
+            Flowable<?> listen() {
+                return RxFirestore.observeDocumentRef(ref, MetadataChanges.EXCLUDE, BackpressureStrategy.LATEST);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Set how many locations can wait for their first snapshot at the same time, 4 by default.
+     *
+     * @return the current instance of {@link RxFirebaseWarmup}.
+     */
+    @NonNull
+    public RxFirebaseWarmup maxConcurrency(int maxConcurrency) {
+        if (maxConcurrency <= 0)
+            throw new IllegalArgumentException("maxConcurrency > 0 required but it was " + maxConcurrency);
+        this.maxConcurrency = maxConcurrency;
+        return this;
+    }
+
+    /**
+     * Set how long each listener is held after its first snapshot, 10 seconds by default.
+     *
+     * @return the current instance of {@link RxFirebaseWarmup}.
+     */
+    @NonNull
+    public RxFirebaseWarmup hold(long hold, @NonNull TimeUnit unit) {
+        this.hold = hold;
+        this.holdUnit = unit;
+        return this;
+    }
+
+    /**
+     * Set the {@link Scheduler} where the times are measured and the listeners are released.
+     *
+     * @return the current instance of {@link RxFirebaseWarmup}.
+     */
+    @NonNull
+    public RxFirebaseWarmup scheduler(@NonNull Scheduler scheduler) {
+        this.scheduler = scheduler;
+        return this;
+    }
+
+    /**
+     * Start listening to every location. A location which fails doesn't stop the others, its error is emitted
+     * once the rest are warm.
+     *
+     * @return a {@link Flowable} which emits a {@link Result} as each location gets its first snapshot.
+     */
+    @NonNull
+    public Flowable<Result> start() {
+        return Flowable.fromIterable(new ArrayList<>(targets))
+            .flatMap(new Function<Target, Publisher<Result>>() {
+                @Override
+                public Publisher<Result> apply(Target target) {
+                    return warm(target).toFlowable();
+                }
+            }, true, maxConcurrency);
+    }
+
+    /**
+     * Remove the held listeners without waiting for their time to end.
+     */
+    public void release() {
+        held.clear();
+    }
+
+    private Single<Result> warm(final Target target) {
+        final Scheduler scheduler = this.scheduler;
+        final long hold = this.hold;
+        final TimeUnit holdUnit = this.holdUnit;
+        return Single.create(new SingleOnSubscribe<Result>() {
+            @Override
+            public void subscribe(final SingleEmitter<Result> emitter) {
+                final long start = scheduler.now(TimeUnit.NANOSECONDS);
+                final AtomicBoolean waiting = new AtomicBoolean(true);
+                final DisposableSubscriber<Object> listener = new DisposableSubscriber<Object>() {
+                    @Override
+                    public void onNext(Object snapshot) {
+                        if (!waiting.compareAndSet(true, false)) return;
+                        final DisposableSubscriber<Object> self = this;
+                        held.add(self);
+                        scheduler.scheduleDirect(new Runnable() {
+                            @Override
+                            public void run() {
+                                held.remove(self);
+                            }
+                        }, hold, holdUnit);
+                        emitter.onSuccess(new Result(target.path, scheduler.now(TimeUnit.NANOSECONDS) - start));
+                    }
+
+                    @Override
+                    public void onError(Throwable throwable) {
+                        held.delete(this);
+                        if (waiting.compareAndSet(true, false)) emitter.onError(throwable);
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        held.delete(this);
+                    }
+                };
+                emitter.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() {
+                        if (waiting.compareAndSet(true, false)) listener.dispose();
+                    }
+                });
+                target.listen().subscribe(listener);
+            }
+        });
+    }
+
+    private abstract static class Target {
+        final String path;
+
+        Target(String path) {
+            this.path = path;
+        }
+
+        abstract Flowable<?> listen();
+    }
+
+    /**
+     * Time a location took to get its first snapshot.
+     */
+    public static class Result {
+        private final String path;
+        private final long nanos;
+
+        Result(@NonNull String path, long nanos) {
+            this.path = path;
+            this.nanos = nanos;
+        }
+
+        /**
+         * @return the URL of the database location or the path of the Firestore document.
+         */
+        @NonNull
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return the time from the start of the listener to its first snapshot, in the given unit.
+         */
+        public long getTimeToFirstSnapshot(@NonNull TimeUnit unit) {
+            return unit.convert(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" +
+                "path='" + path + '\'' +
+                ", timeToFirstSnapshot=" + TimeUnit.NANOSECONDS.toMillis(nanos) + "ms" +
+                '}';
+        }
+    }
+}
@@ -3,12 +3,10 @@ package durdinapps.rxfirebase2;
 
 import android.app.Activity;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
-import com.google.android.gms.tasks.OnCompleteListener;
-import com.google.android.gms.tasks.OnFailureListener;
-import com.google.android.gms.tasks.OnSuccessListener;
-import com.google.android.gms.tasks.Task;
 import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentChange;
 import com.google.firebase.firestore.DocumentReference;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.EventListener;
@@ -20,15 +18,24 @@ import com.google.firebase.firestore.MetadataChanges;
 import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QuerySnapshot;
 import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.Source;
 import com.google.firebase.firestore.Transaction;
 import com.google.firebase.firestore.WriteBatch;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
-import durdinapps.rxfirebase2.exceptions.RxFirebaseNullDataException;
 import io.reactivex.BackpressureStrategy;
 import io.reactivex.Completable;
 import io.reactivex.CompletableEmitter;
@@ -39,18 +46,48 @@ import io.reactivex.FlowableOnSubscribe;
 import io.reactivex.Maybe;
 import io.reactivex.MaybeEmitter;
 import io.reactivex.MaybeOnSubscribe;
+import io.reactivex.Scheduler;
 import io.reactivex.Single;
 import io.reactivex.SingleEmitter;
 import io.reactivex.SingleOnSubscribe;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.functions.BiPredicate;
 import io.reactivex.functions.Cancellable;
+import io.reactivex.functions.Consumer;
 import io.reactivex.functions.Function;
+import io.reactivex.functions.Predicate;
 import io.reactivex.schedulers.Schedulers;
 
+import org.reactivestreams.Publisher;
+
 import static durdinapps.rxfirebase2.DocumentSnapshotMapper.DOCUMENT_EXISTENCE_PREDICATE;
 import static durdinapps.rxfirebase2.DocumentSnapshotMapper.QUERY_EXISTENCE_PREDICATE;
 
 public class RxFirestore {
 
+    /**
+     * Maximum number of values of a whereIn filter supported by every Firestore version.
+     */
+    public static final int WHERE_IN_LIMIT = 10;
+
+    private static final String AUTO_ID_ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+
+    private static final Predicate<Throwable> TRANSACTION_CONTENTION = new Predicate<Throwable>() {
+        @Override
+        public boolean test(Throwable throwable) {
+            return throwable instanceof FirebaseFirestoreException
+                && ((FirebaseFirestoreException) throwable).getCode() == FirebaseFirestoreException.Code.ABORTED;
+        }
+    };
+
+    private static final Function<DocumentSnapshot, DocumentSnapshot> DOCUMENT_IDENTITY =
+        new Function<DocumentSnapshot, DocumentSnapshot>() {
+            @Override
+            public DocumentSnapshot apply(DocumentSnapshot documentSnapshot) {
+                return documentSnapshot;
+            }
+        };
+
     /**
      * Executes the given updateFunction and then attempts to commit the changes applied within the transaction.
      * If any document read within the transaction has changed, the updateFunction will be retried.
@@ -70,6 +107,70 @@ public class RxFirestore {
         });
     }
 
+    /**
+     * Executes the given function and then attempts to commit the changes applied within the transaction, emitting
+     * the value returned by the function. If any document read within the transaction has changed, the function
+     * will be retried. If it fails to commit after 5 attempts, the transaction will fail.
+     *
+     * @param firestore FirebaseFirestore instance.
+     * @param function  The function to execute within the transaction context.
+     * @return a {@link Single} which emits the {@link RxFirestoreTransactionResult} of the transaction.
+     */
+    @NonNull
+    public static <T> Single<RxFirestoreTransactionResult<T>> runTransactionForResult(
+        @NonNull final FirebaseFirestore firestore,
+        @NonNull final Transaction.Function<T> function) {
+        return runTransactionForResult(firestore, Collections.<DocumentReference>emptyList(), function, null);
+    }
+
+    /**
+     * Executes the given function and then attempts to commit the changes applied within the transaction, emitting
+     * the value returned by the function. If any document read within the transaction has changed, the function
+     * will be retried. If it fails to commit after 5 attempts, the transaction fails with
+     * {@link FirebaseFirestoreException.Code#ABORTED}, which the backoff policy retries after a delay.
+     * <p>
+     * The documents of the read set are read together with {@link #getDocuments(List)} before the transaction
+     * starts, so the connection is up and the function's own reads don't pay for it. The function still has to
+     * read them through the {@link Transaction} for the commit to check them.
+     *
+     * @param firestore FirebaseFirestore instance.
+     * @param readSet   documents the function is going to read.
+     * @param function  The function to execute within the transaction context.
+     * @param backoff   policy to retry the transaction when it fails because of contention, or null to fail.
+     * @return a {@link Single} which emits the {@link RxFirestoreTransactionResult} of the transaction.
+     */
+    @NonNull
+    public static <T> Single<RxFirestoreTransactionResult<T>> runTransactionForResult(
+        @NonNull final FirebaseFirestore firestore,
+        @NonNull final List<DocumentReference> readSet,
+        @NonNull final Transaction.Function<T> function,
+        @Nullable final RxFirebaseBackoffPolicy backoff) {
+        return Single.defer(new Callable<Single<RxFirestoreTransactionResult<T>>>() {
+            @Override
+            public Single<RxFirestoreTransactionResult<T>> call() {
+                final AtomicInteger attempts = new AtomicInteger();
+                Single<RxFirestoreTransactionResult<T>> transaction =
+                    Single.create(new SingleOnSubscribe<RxFirestoreTransactionResult<T>>() {
+                        @Override
+                        public void subscribe(SingleEmitter<RxFirestoreTransactionResult<T>> emitter) {
+                            RxSingleHandler.assignOnTask(emitter, firestore.runTransaction(
+                                new Transaction.Function<RxFirestoreTransactionResult<T>>() {
+                                    @Override
+                                    public RxFirestoreTransactionResult<T> apply(Transaction transaction)
+                                        throws FirebaseFirestoreException {
+                                        int attempt = attempts.incrementAndGet();
+                                        return new RxFirestoreTransactionResult<>(function.apply(transaction), attempt);
+                                    }
+                                }));
+                        }
+                    });
+                if (backoff != null) transaction = transaction.retryWhen(backoff.retryWhen(TRANSACTION_CONTENTION));
+                if (readSet.isEmpty()) return transaction;
+                return getDocuments(readSet).toCompletable().onErrorComplete().andThen(transaction);
+            }
+        });
+    }
+
     /**
      * Execute all of the writes in this write batch as a single atomic unit.
      *
@@ -97,20 +198,7 @@ public class RxFirestore {
             batchTasks.add(Completable.create(new CompletableOnSubscribe() {
                 @Override
                 public void subscribe(final CompletableEmitter emitter) {
-                    batch.commit()
-                        .addOnSuccessListener(new OnSuccessListener<Void>() {
-                            @Override
-                            public void onSuccess(Void aVoid) {
-                                emitter.onComplete();
-                            }
-                        })
-                        .addOnFailureListener(new OnFailureListener() {
-                            @Override
-                            public void onFailure(@NonNull Exception e) {
-                                if (!emitter.isDisposed())
-                                    emitter.onError(e);
-                            }
-                        });
+                    RxCompletableHandler.assignOnTask(emitter, batch.commit());
                 }
             }).subscribeOn(Schedulers.io()));
         }
@@ -131,22 +219,7 @@ public class RxFirestore {
         return Single.create(new SingleOnSubscribe<DocumentReference>() {
             @Override
             public void subscribe(final SingleEmitter<DocumentReference> emitter) {
-                ref.add(data).addOnCompleteListener(new OnCompleteListener<DocumentReference>() {
-                    @Override
-                    public void onComplete(@NonNull Task<DocumentReference> task) {
-                        if (task.getResult() == null){
-                            emitter.onError(new RxFirebaseNullDataException(task.getException()));
-                            return;
-                        }
-                        emitter.onSuccess(task.getResult());
-                    }
-                }).addOnFailureListener(new OnFailureListener() {
-                    @Override
-                    public void onFailure(@NonNull Exception e) {
-                        if (!emitter.isDisposed())
-                            emitter.onError(e);
-                    }
-                });
+                RxSingleHandler.assignOnTask(emitter, ref.add(data));
             }
         });
     }
@@ -164,22 +237,7 @@ public class RxFirestore {
         return Single.create(new SingleOnSubscribe<DocumentReference>() {
             @Override
             public void subscribe(final SingleEmitter<DocumentReference> emitter) {
-                ref.add(pojo).addOnCompleteListener(new OnCompleteListener<DocumentReference>() {
-                    @Override
-                    public void onComplete(@NonNull Task<DocumentReference> task) {
-                        if (task.getResult() == null){
-                            emitter.onError(new RxFirebaseNullDataException(task.getException()));
-                            return;
-                        }
-                        emitter.onSuccess(task.getResult());
-                    }
-                }).addOnFailureListener(new OnFailureListener() {
-                    @Override
-                    public void onFailure(@NonNull Exception e) {
-                        if (!emitter.isDisposed())
-                            emitter.onError(e);
-                    }
-                });
+                RxSingleHandler.assignOnTask(emitter, ref.add(pojo));
             }
         });
     }
@@ -501,24 +559,67 @@ public class RxFirestore {
         return Maybe.create(new MaybeOnSubscribe<DocumentSnapshot>() {
             @Override
             public void subscribe(final MaybeEmitter<DocumentSnapshot> emitter) {
-                ref.get().addOnSuccessListener(new OnSuccessListener<DocumentSnapshot>() {
-                    @Override
-                    public void onSuccess(DocumentSnapshot documentSnapshot) {
-                        if (documentSnapshot.exists()) {
-                            emitter.onSuccess(documentSnapshot);
-                        } else {
-                            emitter.onComplete();
-                        }
-                    }
-                }).addOnFailureListener(new OnFailureListener() {
-                    @Override
-                    public void onFailure(@NonNull Exception e) {
-                        if (!emitter.isDisposed())
-                            emitter.onError(e);
-                    }
-                });
+                RxHandler.assignOnTask(emitter, ref.get());
             }
-        });
+        }).filter(DOCUMENT_EXISTENCE_PREDICATE);
+    }
+
+    /**
+     * Reads the document referenced by this DocumentReference.
+     *
+     * @param ref      The given Document reference.
+     * @param executor The executor to use to call the task listeners.
+     */
+    @NonNull
+    public static Maybe<DocumentSnapshot> getDocument(@NonNull final DocumentReference ref,
+                                                      @NonNull final Executor executor) {
+        return Maybe.create(new MaybeOnSubscribe<DocumentSnapshot>() {
+            @Override
+            public void subscribe(final MaybeEmitter<DocumentSnapshot> emitter) {
+                RxHandler.assignOnTask(emitter, ref.get(), executor);
+            }
+        }).filter(DOCUMENT_EXISTENCE_PREDICATE);
+    }
+
+    /**
+     * Reads the document referenced by this DocumentReference from the given source.
+     *
+     * @param ref    The given Document reference.
+     * @param source {@link Source#CACHE} to read only the local cache, {@link Source#SERVER} to skip it, or
+     *               {@link Source#DEFAULT} to read the server and fall back to the cache when offline.
+     */
+    @NonNull
+    public static Maybe<DocumentSnapshot> getDocument(@NonNull final DocumentReference ref,
+                                                      @NonNull final Source source) {
+        return Maybe.create(new MaybeOnSubscribe<DocumentSnapshot>() {
+            @Override
+            public void subscribe(final MaybeEmitter<DocumentSnapshot> emitter) {
+                RxHandler.assignOnTask(emitter, ref.get(source));
+            }
+        }).filter(DOCUMENT_EXISTENCE_PREDICATE);
+    }
+
+    /**
+     * Reads the document referenced by this DocumentReference from the local cache and from the server at the
+     * same time. The cached snapshot is emitted as soon as it is read, then the server snapshot only if its data
+     * differs or if the cache had nothing. Unlike {@link #getDocument(DocumentReference)}, the snapshots are
+     * emitted even if the document doesn't exist, so a deletion on the server is seen.
+     * <p>
+     * When offline, the stream completes after the cached snapshot instead of failing with
+     * {@link FirebaseFirestoreException.Code#UNAVAILABLE}.
+     *
+     * @param ref The given Document reference.
+     * @return a {@link Flowable} which emits the cached snapshot and then the server one if it changed.
+     */
+    @NonNull
+    public static Flowable<DocumentSnapshot> getDocumentFromCacheThenServer(@NonNull final DocumentReference ref) {
+        return cacheThenServer(getDocumentSnapshot(ref, Source.CACHE), getDocumentSnapshot(ref, Source.SERVER),
+            new BiPredicate<DocumentSnapshot, DocumentSnapshot>() {
+                @Override
+                public boolean test(DocumentSnapshot cached, DocumentSnapshot fetched) {
+                    return sameData(cached, fetched);
+                }
+            });
     }
 
     /**
@@ -531,24 +632,26 @@ public class RxFirestore {
         return Maybe.create(new MaybeOnSubscribe<QuerySnapshot>() {
             @Override
             public void subscribe(final MaybeEmitter<QuerySnapshot> emitter) throws Exception {
-                ref.get().addOnSuccessListener(new OnSuccessListener<QuerySnapshot>() {
-                    @Override
-                    public void onSuccess(QuerySnapshot documentSnapshots) {
-                        if (documentSnapshots.isEmpty()) {
-                            emitter.onComplete();
-                        } else {
-                            emitter.onSuccess(documentSnapshots);
-                        }
-                    }
-                }).addOnFailureListener(new OnFailureListener() {
-                    @Override
-                    public void onFailure(@NonNull Exception e) {
-                        if (!emitter.isDisposed())
-                            emitter.onError(e);
-                    }
-                });
+                RxHandler.assignOnTask(emitter, ref.get());
             }
-        });
+        }).filter(QUERY_EXISTENCE_PREDICATE);
+    }
+
+    /**
+     * Reads the collection referenced by this DocumentReference
+     *
+     * @param ref      The given Collection reference.
+     * @param executor The executor to use to call the task listeners.
+     */
+    @NonNull
+    public static Maybe<QuerySnapshot> getCollection(@NonNull final CollectionReference ref,
+                                                     @NonNull final Executor executor) {
+        return Maybe.create(new MaybeOnSubscribe<QuerySnapshot>() {
+            @Override
+            public void subscribe(final MaybeEmitter<QuerySnapshot> emitter) {
+                RxHandler.assignOnTask(emitter, ref.get(), executor);
+            }
+        }).filter(QUERY_EXISTENCE_PREDICATE);
     }
 
 
@@ -562,24 +665,73 @@ public class RxFirestore {
         return Maybe.create(new MaybeOnSubscribe<QuerySnapshot>() {
             @Override
             public void subscribe(final MaybeEmitter<QuerySnapshot> emitter) {
-                query.get().addOnSuccessListener(new OnSuccessListener<QuerySnapshot>() {
-                    @Override
-                    public void onSuccess(QuerySnapshot documentSnapshots) {
-                        if (documentSnapshots.isEmpty()) {
-                            emitter.onComplete();
-                        } else {
-                            emitter.onSuccess(documentSnapshots);
-                        }
-                    }
-                }).addOnFailureListener(new OnFailureListener() {
-                    @Override
-                    public void onFailure(@NonNull Exception e) {
-                        if (!emitter.isDisposed())
-                            emitter.onError(e);
-                    }
-                });
+                RxHandler.assignOnTask(emitter, query.get());
             }
-        });
+        }).filter(QUERY_EXISTENCE_PREDICATE);
+    }
+
+    /**
+     * Reads the collection referenced by this DocumentReference
+     *
+     * @param query    The given Collection query.
+     * @param executor The executor to use to call the task listeners.
+     */
+    @NonNull
+    public static Maybe<QuerySnapshot> getCollection(@NonNull final Query query,
+                                                     @NonNull final Executor executor) {
+        return Maybe.create(new MaybeOnSubscribe<QuerySnapshot>() {
+            @Override
+            public void subscribe(final MaybeEmitter<QuerySnapshot> emitter) {
+                RxHandler.assignOnTask(emitter, query.get(), executor);
+            }
+        }).filter(QUERY_EXISTENCE_PREDICATE);
+    }
+
+    /**
+     * Reads the documents of the given query from the given source.
+     *
+     * @param query  The given Collection query.
+     * @param source {@link Source#CACHE} to read only the local cache, {@link Source#SERVER} to skip it, or
+     *               {@link Source#DEFAULT} to read the server and fall back to the cache when offline.
+     */
+    @NonNull
+    public static Maybe<QuerySnapshot> getCollection(@NonNull final Query query,
+                                                     @NonNull final Source source) {
+        return Maybe.create(new MaybeOnSubscribe<QuerySnapshot>() {
+            @Override
+            public void subscribe(final MaybeEmitter<QuerySnapshot> emitter) {
+                RxHandler.assignOnTask(emitter, query.get(source));
+            }
+        }).filter(QUERY_EXISTENCE_PREDICATE);
+    }
+
+    /**
+     * Reads the documents of the given query from the local cache and from the server at the same time. The
+     * cached snapshot is emitted as soon as it is read, then the server snapshot only if its documents differ or
+     * if the cache had nothing. Unlike {@link #getCollection(Query)}, empty snapshots are emitted too.
+     * <p>
+     * When offline, the stream completes after the cached snapshot instead of failing with
+     * {@link FirebaseFirestoreException.Code#UNAVAILABLE}.
+     *
+     * @param query The given Collection query.
+     * @return a {@link Flowable} which emits the cached snapshot and then the server one if it changed.
+     */
+    @NonNull
+    public static Flowable<QuerySnapshot> getCollectionFromCacheThenServer(@NonNull final Query query) {
+        return cacheThenServer(getQuerySnapshot(query, Source.CACHE), getQuerySnapshot(query, Source.SERVER),
+            new BiPredicate<QuerySnapshot, QuerySnapshot>() {
+                @Override
+                public boolean test(QuerySnapshot cached, QuerySnapshot fetched) {
+                    List<DocumentSnapshot> cachedDocuments = cached.getDocuments();
+                    List<DocumentSnapshot> fetchedDocuments = fetched.getDocuments();
+                    if (cachedDocuments.size() != fetchedDocuments.size()) return false;
+                    for (int i = 0; i < cachedDocuments.size(); i++) {
+                        if (!cachedDocuments.get(i).getId().equals(fetchedDocuments.get(i).getId())
+                            || !sameData(cachedDocuments.get(i), fetchedDocuments.get(i))) return false;
+                    }
+                    return true;
+                }
+            });
     }
 
     /**
@@ -1276,6 +1428,22 @@ public class RxFirestore {
             .map(mapper);
     }
 
+    /**
+     * Reads the collection referenced by this Query. The mapper runs on the given executor.
+     *
+     * @param query    The given Collection query.
+     * @param executor The executor to use to call the task listeners.
+     * @param mapper   specific function to map the dispatched events.
+     */
+    @NonNull
+    public static <T> Maybe<List<T>> getCollection(@NonNull Query query,
+                                                   @NonNull Executor executor,
+                                                   @NonNull DocumentSnapshotMapper<QuerySnapshot,
+                                                       List<T>> mapper) {
+        return getCollection(query, executor)
+            .map(mapper);
+    }
+
     /**
      * Reads the document referenced by this DocumentReference.
      *
@@ -1301,4 +1469,585 @@ public class RxFirestore {
             .filter(DOCUMENT_EXISTENCE_PREDICATE)
             .map(mapper);
     }
+
+    /**
+     * Reads the document referenced by this DocumentReference. The mapper runs on the given executor.
+     *
+     * @param ref      The given Document reference.
+     * @param executor The executor to use to call the task listeners.
+     * @param mapper   specific function to map the dispatched events.
+     */
+    @NonNull
+    public static <T> Maybe<T> getDocument(@NonNull final DocumentReference ref,
+                                           @NonNull final Executor executor,
+                                           @NonNull final Function<? super DocumentSnapshot, ? extends T> mapper) {
+        return getDocument(ref, executor)
+            .map(mapper);
+    }
+
+    /**
+     * Starts a conflating listener on the document referenced by this DocumentReference. Only the most recent
+     * snapshot is kept while the subscriber is busy and it is always delivered as soon as it requests more.
+     *
+     * @param ref             The given Document reference.
+     * @param metadataChanges Listen for metadata changes
+     */
+    @NonNull
+    public static Flowable<DocumentSnapshot> observeLatestDocumentRef(@NonNull final DocumentReference ref,
+                                                                      @NonNull final MetadataChanges metadataChanges) {
+        return observeDocumentRef(ref, metadataChanges, BackpressureStrategy.LATEST);
+    }
+
+    /**
+     * Starts a conflating listener on the document referenced by this DocumentReference which emits at most one
+     * snapshot, the latest one, for each sample period.
+     *
+     * @param ref             The given Document reference.
+     * @param metadataChanges Listen for metadata changes
+     * @param period          the sampling period.
+     * @param unit            the unit of time of the sampling period.
+     */
+    @NonNull
+    public static Flowable<DocumentSnapshot> observeLatestDocumentRef(@NonNull final DocumentReference ref,
+                                                                      @NonNull final MetadataChanges metadataChanges,
+                                                                      final long period,
+                                                                      @NonNull final TimeUnit unit) {
+        return observeLatestDocumentRef(ref, metadataChanges)
+            .sample(period, unit, true)
+            .onBackpressureLatest();
+    }
+
+    /**
+     * Starts a conflating listener on the document referenced by this DocumentReference. Only the snapshots
+     * which reach the subscriber are mapped.
+     *
+     * @param ref    The given Document reference.
+     * @param mapper specific function to map the dispatched events.
+     */
+    @NonNull
+    public static <T> Flowable<T> observeLatestDocumentRef(@NonNull final DocumentReference ref,
+                                                           @NonNull final Function<? super DocumentSnapshot, ? extends T> mapper) {
+        return observeLatestDocumentRef(ref, MetadataChanges.EXCLUDE)
+            .filter(DOCUMENT_EXISTENCE_PREDICATE)
+            .map(mapper);
+    }
+
+    /**
+     * Starts a conflating listener on the document referenced by this DocumentReference which emits at most one
+     * mapped value, the latest one, for each sample period.
+     *
+     * @param ref    The given Document reference.
+     * @param mapper specific function to map the dispatched events.
+     * @param period the sampling period.
+     * @param unit   the unit of time of the sampling period.
+     */
+    @NonNull
+    public static <T> Flowable<T> observeLatestDocumentRef(@NonNull final DocumentReference ref,
+                                                           @NonNull final Function<? super DocumentSnapshot, ? extends T> mapper,
+                                                           final long period,
+                                                           @NonNull final TimeUnit unit) {
+        return observeLatestDocumentRef(ref, MetadataChanges.EXCLUDE, period, unit)
+            .filter(DOCUMENT_EXISTENCE_PREDICATE)
+            .map(mapper);
+    }
+
+    /**
+     * Starts a conflating listener on the documents referenced by this Query. Only the most recent snapshot is
+     * kept while the subscriber is busy and it is always delivered as soon as it requests more.
+     *
+     * @param ref             The given Query reference.
+     * @param metadataChanges Listen for metadata changes
+     */
+    @NonNull
+    public static Flowable<QuerySnapshot> observeLatestQueryRef(@NonNull final Query ref,
+                                                                @NonNull final MetadataChanges metadataChanges) {
+        return observeQueryRef(ref, metadataChanges, BackpressureStrategy.LATEST);
+    }
+
+    /**
+     * Starts a conflating listener on the documents referenced by this Query which emits at most one snapshot,
+     * the latest one, for each sample period.
+     *
+     * @param ref             The given Query reference.
+     * @param metadataChanges Listen for metadata changes
+     * @param period          the sampling period.
+     * @param unit            the unit of time of the sampling period.
+     */
+    @NonNull
+    public static Flowable<QuerySnapshot> observeLatestQueryRef(@NonNull final Query ref,
+                                                                @NonNull final MetadataChanges metadataChanges,
+                                                                final long period,
+                                                                @NonNull final TimeUnit unit) {
+        return observeLatestQueryRef(ref, metadataChanges)
+            .sample(period, unit, true)
+            .onBackpressureLatest();
+    }
+
+    /**
+     * Starts a conflating listener on the documents referenced by this Query. Only the snapshots which reach the
+     * subscriber are mapped.
+     *
+     * @param ref    The given Query reference.
+     * @param mapper specific function to map the dispatched events.
+     */
+    @NonNull
+    public static <T> Flowable<T> observeLatestQueryRef(@NonNull final Query ref,
+                                                        @NonNull final Function<? super QuerySnapshot, ? extends T> mapper) {
+        return observeLatestQueryRef(ref, MetadataChanges.EXCLUDE)
+            .filter(QUERY_EXISTENCE_PREDICATE)
+            .map(mapper);
+    }
+
+    /**
+     * Starts a conflating listener on the documents referenced by this Query which emits at most one mapped
+     * value, the latest one, for each sample period.
+     *
+     * @param ref    The given Query reference.
+     * @param mapper specific function to map the dispatched events.
+     * @param period the sampling period.
+     * @param unit   the unit of time of the sampling period.
+     */
+    @NonNull
+    public static <T> Flowable<T> observeLatestQueryRef(@NonNull final Query ref,
+                                                        @NonNull final Function<? super QuerySnapshot, ? extends T> mapper,
+                                                        final long period,
+                                                        @NonNull final TimeUnit unit) {
+        return observeLatestQueryRef(ref, MetadataChanges.EXCLUDE, period, unit)
+            .filter(QUERY_EXISTENCE_PREDICATE)
+            .map(mapper);
+    }
+
+    /**
+     * Starts listening to the documents referenced by this Query and emits, for each query result, the mapped
+     * documents together with the changes from the previous result. The changes are read from the
+     * {@link DocumentChange} indices and only the changed documents are mapped. The items are kept in a persistent
+     * tree shared between emissions, so every emission costs O(changes * log n) on the computation scheduler.
+     *
+     * @param ref   The given Query reference.
+     * @param clazz class type for the {@link DocumentSnapshot} items.
+     */
+    @NonNull
+    public static <T> Flowable<RxFirestoreChangeSet<T>> observeQueryChanges(@NonNull final Query ref,
+                                                                            @NonNull final Class<T> clazz) {
+        return observeQueryChanges(ref, DocumentSnapshotMapper.of(clazz), Schedulers.computation());
+    }
+
+    /**
+     * Starts listening to the documents referenced by this Query and emits, for each query result, the mapped
+     * documents together with the changes from the previous result. The changes are read from the
+     * {@link DocumentChange} indices and only the changed documents are mapped. The items are kept in a persistent
+     * tree shared between emissions, so every emission costs O(changes * log n) on the given scheduler.
+     *
+     * @param ref       The given Query reference.
+     * @param mapper    specific function to map each changed document.
+     * @param scheduler {@link Scheduler} where the changes are computed.
+     */
+    @NonNull
+    public static <T> Flowable<RxFirestoreChangeSet<T>> observeQueryChanges(@NonNull final Query ref,
+                                                                            @NonNull final Function<? super DocumentSnapshot, ? extends T> mapper,
+                                                                            @NonNull final Scheduler scheduler) {
+        return Flowable.defer(new Callable<Publisher<RxFirestoreChangeSet<T>>>() {
+            @Override
+            public Publisher<RxFirestoreChangeSet<T>> call() throws Exception {
+                final AtomicReference<PersistentList<T>> items = new AtomicReference<>(PersistentList.<T>empty());
+                final boolean[] first = {true};
+                // Every change is relative to the previous snapshot, so none of them can be dropped.
+                return observeQueryRef(ref, MetadataChanges.EXCLUDE, BackpressureStrategy.BUFFER)
+                    .observeOn(scheduler)
+                    .map(new Function<QuerySnapshot, RxFirestoreChangeSet<T>>() {
+                        @Override
+                        public RxFirestoreChangeSet<T> apply(QuerySnapshot querySnapshot) throws Exception {
+                            List<DocumentChange> documentChanges = querySnapshot.getDocumentChanges();
+                            List<RxFirestoreChangeSet.Change<T>> changes = new ArrayList<>(documentChanges.size());
+                            for (DocumentChange documentChange : documentChanges) {
+                                String id = documentChange.getDocument().getId();
+                                int oldIndex = documentChange.getOldIndex();
+                                int newIndex = documentChange.getNewIndex();
+                                T value;
+                                if (documentChange.getType() == DocumentChange.Type.REMOVED) {
+                                    value = items.get().get(oldIndex);
+                                    items.set(items.get().minus(oldIndex));
+                                } else {
+                                    value = mapper.apply(documentChange.getDocument());
+                                    if (oldIndex == newIndex) {
+                                        items.set(items.get().with(newIndex, value));
+                                    } else {
+                                        if (oldIndex >= 0) items.set(items.get().minus(oldIndex));
+                                        items.set(items.get().plus(newIndex, value));
+                                    }
+                                }
+                                changes.add(new RxFirestoreChangeSet.Change<>(documentChange.getType(), id, value,
+                                    oldIndex, newIndex));
+                            }
+                            return new RxFirestoreChangeSet<T>(items.get(), Collections.unmodifiableList(changes));
+                        }
+                    })
+                    .filter(new Predicate<RxFirestoreChangeSet<T>>() {
+                        @Override
+                        public boolean test(RxFirestoreChangeSet<T> changeSet) {
+                            boolean emit = first[0] || !changeSet.getChanges().isEmpty();
+                            first[0] = false;
+                            return emit;
+                        }
+                    });
+            }
+        });
+    }
+
+    /**
+     * Reads the documents of the given Query page by page, using the last document of each page as the
+     * {@link Query#startAfter(DocumentSnapshot) cursor} of the next one. Each page is only requested to the
+     * database when the subscriber requests it.
+     *
+     * @param query    The given Query, already ordered.
+     * @param pageSize maximum number of documents of each page.
+     * @return a {@link Flowable} which emits a list of documents per requested page.
+     */
+    @NonNull
+    public static Flowable<List<DocumentSnapshot>> getPages(@NonNull final Query query, final int pageSize) {
+        return getPages(query, pageSize, DOCUMENT_IDENTITY, false);
+    }
+
+    /**
+     * Reads the documents of the given Query page by page, using the last document of each page as the
+     * {@link Query#startAfter(DocumentSnapshot) cursor} of the next one. Each page is only requested to the
+     * database when the subscriber requests it.
+     *
+     * @param query    The given Query, already ordered.
+     * @param pageSize maximum number of documents of each page.
+     * @param clazz    class type for the {@link DocumentSnapshot} items.
+     * @return a {@link Flowable} which emits a list of mapped documents per requested page.
+     */
+    @NonNull
+    public static <T> Flowable<List<T>> getPages(@NonNull final Query query,
+                                                 final int pageSize,
+                                                 @NonNull final Class<T> clazz) {
+        return getPages(query, pageSize, DocumentSnapshotMapper.of(clazz), false);
+    }
+
+    /**
+     * Reads the documents of the given Query page by page, using the last document of each page as the
+     * {@link Query#startAfter(DocumentSnapshot) cursor} of the next one.
+     *
+     * @param query    The given Query, already ordered.
+     * @param pageSize maximum number of documents of each page.
+     * @param mapper   specific function to map each document.
+     * @param prefetch true to load the following page as soon as a page is emitted, false to wait for the request.
+     * @return a {@link Flowable} which emits a list of mapped documents per requested page.
+     */
+    @NonNull
+    public static <T> Flowable<List<T>> getPages(@NonNull final Query query,
+                                                 final int pageSize,
+                                                 @NonNull final Function<? super DocumentSnapshot, ? extends T> mapper,
+                                                 final boolean prefetch) {
+        return paginate(query, pageSize, mapper, prefetch ? 1 : 0);
+    }
+
+    /**
+     * Streams every document of the given collection, reading it in pages ordered by document id. Each page is
+     * released once its documents are emitted, so memory depends on the page size and not on the collection size.
+     *
+     * @param ref      The given Collection reference.
+     * @param pageSize maximum number of documents of each page.
+     * @return a {@link Flowable} which emits every document of the collection, or just completes if it is empty.
+     */
+    @NonNull
+    public static Flowable<DocumentSnapshot> scanCollection(@NonNull final CollectionReference ref,
+                                                            final int pageSize) {
+        return scanCollection(ref, pageSize, 1);
+    }
+
+    /**
+     * Streams every document of the given collection, reading it in pages ordered by document id. Each page is
+     * released once its documents are emitted, so memory depends on the page size and not on the collection size.
+     * Every page needs the last document of the previous one, so prefetched pages are read one after another
+     * while the subscriber is busy with the current one.
+     *
+     * @param ref           The given Collection reference.
+     * @param pageSize      maximum number of documents of each page.
+     * @param prefetchPages number of pages read ahead of the subscriber.
+     * @return a {@link Flowable} which emits every document of the collection, or just completes if it is empty.
+     */
+    @NonNull
+    public static Flowable<DocumentSnapshot> scanCollection(@NonNull final CollectionReference ref,
+                                                            final int pageSize,
+                                                            final int prefetchPages) {
+        if (prefetchPages < 0) throw new IllegalArgumentException("prefetchPages >= 0 required but it was " + prefetchPages);
+        return scanQuery(ref.orderBy(FieldPath.documentId()), pageSize, prefetchPages);
+    }
+
+    /**
+     * Streams every document of the given collection reading several document id ranges concurrently. The
+     * ranges are split assuming the documents use automatically generated ids, which are spread evenly over
+     * the id alphabet.
+     *
+     * @param ref        The given Collection reference.
+     * @param pageSize   maximum number of documents of each page.
+     * @param partitions number of ranges read at the same time.
+     * @param ordered    true to emit the documents ordered by id, false to emit them as soon as each range reads them.
+     * @return a {@link Flowable} which emits every document of the collection, or just completes if it is empty.
+     */
+    @NonNull
+    public static Flowable<DocumentSnapshot> scanCollectionPartitioned(@NonNull final CollectionReference ref,
+                                                                       final int pageSize,
+                                                                       final int partitions,
+                                                                       final boolean ordered) {
+        if (partitions <= 0) throw new IllegalArgumentException("partitions > 0 required but it was " + partitions);
+        List<String> splitPoints = new ArrayList<>(partitions - 1);
+        int ranges = AUTO_ID_ALPHABET.length() * AUTO_ID_ALPHABET.length();
+        for (int i = 1; i < partitions; i++) {
+            int point = (int) ((long) i * ranges / partitions);
+            splitPoints.add("" + AUTO_ID_ALPHABET.charAt(point / AUTO_ID_ALPHABET.length())
+                + AUTO_ID_ALPHABET.charAt(point % AUTO_ID_ALPHABET.length()));
+        }
+        return scanCollectionPartitioned(ref, pageSize, splitPoints, ordered);
+    }
+
+    /**
+     * Streams every document of the given collection reading the document id ranges delimited by the given split
+     * points concurrently, each one page by page.
+     *
+     * @param ref         The given Collection reference.
+     * @param pageSize    maximum number of documents of each page.
+     * @param splitPoints sorted document ids where each range starts, the first range starts at the first document.
+     * @param ordered     true to emit the documents ordered by id, false to emit them as soon as each range reads them.
+     * @return a {@link Flowable} which emits every document of the collection, or just completes if it is empty.
+     */
+    @NonNull
+    public static Flowable<DocumentSnapshot> scanCollectionPartitioned(@NonNull final CollectionReference ref,
+                                                                       final int pageSize,
+                                                                       @NonNull final List<String> splitPoints,
+                                                                       final boolean ordered) {
+        List<Flowable<DocumentSnapshot>> partitions = new ArrayList<>(splitPoints.size() + 1);
+        for (int i = 0; i <= splitPoints.size(); i++) {
+            Query partition = ref.orderBy(FieldPath.documentId());
+            if (i > 0) {
+                partition = partition.whereGreaterThanOrEqualTo(FieldPath.documentId(), splitPoints.get(i - 1));
+            }
+            if (i < splitPoints.size()) {
+                partition = partition.whereLessThan(FieldPath.documentId(), splitPoints.get(i));
+            }
+            partitions.add(scanQuery(partition, pageSize, 1));
+        }
+        return ordered ? Flowable.concatEager(partitions) : Flowable.merge(partitions);
+    }
+
+    private static Flowable<DocumentSnapshot> scanQuery(@NonNull final Query query,
+                                                        final int pageSize,
+                                                        final int prefetchPages) {
+        return paginate(query, pageSize, DOCUMENT_IDENTITY, prefetchPages)
+            .flatMapIterable(new Function<List<DocumentSnapshot>, Iterable<DocumentSnapshot>>() {
+                @Override
+                public Iterable<DocumentSnapshot> apply(List<DocumentSnapshot> page) {
+                    return page;
+                }
+            }, 1);
+    }
+
+    private static <T> Flowable<List<T>> paginate(@NonNull final Query query,
+                                                  final int pageSize,
+                                                  @NonNull final Function<? super DocumentSnapshot, ? extends T> mapper,
+                                                  final int prefetch) {
+        if (pageSize <= 0) throw new IllegalArgumentException("pageSize > 0 required but it was " + pageSize);
+        return new PaginatedFlowable<>(new PaginatedFlowable.PageLoader<DocumentSnapshot, T>() {
+            @NonNull
+            @Override
+            public Single<PaginatedFlowable.Page<DocumentSnapshot, T>> load(DocumentSnapshot cursor) {
+                Query page = cursor == null ? query.limit(pageSize) : query.startAfter(cursor).limit(pageSize);
+                return getQuerySnapshot(page).map(new Function<QuerySnapshot, PaginatedFlowable.Page<DocumentSnapshot, T>>() {
+                    @Override
+                    public PaginatedFlowable.Page<DocumentSnapshot, T> apply(QuerySnapshot querySnapshot) throws Exception {
+                        List<DocumentSnapshot> documents = querySnapshot.getDocuments();
+                        List<T> items = new ArrayList<>(documents.size());
+                        for (DocumentSnapshot document : documents) {
+                            items.add(mapper.apply(document));
+                        }
+                        DocumentSnapshot next = documents.size() < pageSize ? null : documents.get(documents.size() - 1);
+                        return new PaginatedFlowable.Page<>(items, next);
+                    }
+                });
+            }
+        }, prefetch);
+    }
+
+    /**
+     * Reads the given documents with as few queries as possible. The references are grouped by collection and
+     * read with whereIn queries on the document id of {@value #WHERE_IN_LIMIT} ids each, running at most 4 of
+     * them at the same time.
+     *
+     * @param refs The given Document references.
+     * @return a {@link Single} which emits one {@link RxFirestoreDocument} per reference, in the same order, even
+     * for the documents which don't exist.
+     */
+    @NonNull
+    public static Single<List<RxFirestoreDocument>> getDocuments(@NonNull final List<DocumentReference> refs) {
+        return getDocuments(refs, WHERE_IN_LIMIT, 4);
+    }
+
+    /**
+     * Reads the given documents with as few queries as possible. The references are grouped by collection and
+     * read with whereIn queries on the document id.
+     *
+     * @param refs           The given Document references.
+     * @param chunkSize      maximum number of ids of each whereIn query, limited by the Firestore version in use.
+     * @param maxConcurrency maximum number of queries running at the same time.
+     * @return a {@link Single} which emits one {@link RxFirestoreDocument} per reference, in the same order, even
+     * for the documents which don't exist.
+     */
+    @NonNull
+    public static Single<List<RxFirestoreDocument>> getDocuments(@NonNull final List<DocumentReference> refs,
+                                                                 final int chunkSize,
+                                                                 final int maxConcurrency) {
+        if (chunkSize <= 0) throw new IllegalArgumentException("chunkSize > 0 required but it was " + chunkSize);
+        return Flowable.fromIterable(chunkByCollection(refs, chunkSize))
+            .flatMap(new Function<Query, Publisher<DocumentSnapshot>>() {
+                @Override
+                public Publisher<DocumentSnapshot> apply(Query chunk) {
+                    return getQuerySnapshot(chunk).flattenAsFlowable(new Function<QuerySnapshot, Iterable<DocumentSnapshot>>() {
+                        @Override
+                        public Iterable<DocumentSnapshot> apply(QuerySnapshot querySnapshot) {
+                            return querySnapshot.getDocuments();
+                        }
+                    });
+                }
+            }, maxConcurrency)
+            .toMap(new Function<DocumentSnapshot, String>() {
+                @Override
+                public String apply(DocumentSnapshot documentSnapshot) {
+                    return documentSnapshot.getReference().getPath();
+                }
+            })
+            .map(new Function<Map<String, DocumentSnapshot>, List<RxFirestoreDocument>>() {
+                @Override
+                public List<RxFirestoreDocument> apply(Map<String, DocumentSnapshot> found) {
+                    List<RxFirestoreDocument> documents = new ArrayList<>(refs.size());
+                    for (DocumentReference ref : refs) {
+                        documents.add(new RxFirestoreDocument(ref, found.get(ref.getPath())));
+                    }
+                    return documents;
+                }
+            });
+    }
+
+    /**
+     * Group the given references by collection in whereIn queries of at most chunkSize distinct ids.
+     */
+    private static List<Query> chunkByCollection(List<DocumentReference> refs, int chunkSize) {
+        Map<String, CollectionReference> collections = new LinkedHashMap<>();
+        Map<String, Set<String>> ids = new LinkedHashMap<>();
+        for (DocumentReference ref : refs) {
+            CollectionReference collection = ref.getParent();
+            Set<String> collectionIds = ids.get(collection.getPath());
+            if (collectionIds == null) {
+                collectionIds = new LinkedHashSet<>();
+                ids.put(collection.getPath(), collectionIds);
+                collections.put(collection.getPath(), collection);
+            }
+            collectionIds.add(ref.getId());
+        }
+        List<Query> chunks = new ArrayList<>();
+        for (Map.Entry<String, Set<String>> entry : ids.entrySet()) {
+            List<String> collectionIds = new ArrayList<>(entry.getValue());
+            for (int i = 0; i < collectionIds.size(); i += chunkSize) {
+                List<String> chunk = collectionIds.subList(i, Math.min(i + chunkSize, collectionIds.size()));
+                chunks.add(collections.get(entry.getKey()).whereIn(FieldPath.documentId(), new ArrayList<>(chunk)));
+            }
+        }
+        return chunks;
+    }
+
+    private static Single<QuerySnapshot> getQuerySnapshot(@NonNull final Query query) {
+        return Single.create(new SingleOnSubscribe<QuerySnapshot>() {
+            @Override
+            public void subscribe(SingleEmitter<QuerySnapshot> emitter) {
+                RxSingleHandler.assignOnTask(emitter, query.get());
+            }
+        });
+    }
+
+    private static Single<QuerySnapshot> getQuerySnapshot(@NonNull final Query query, @NonNull final Source source) {
+        return Single.create(new SingleOnSubscribe<QuerySnapshot>() {
+            @Override
+            public void subscribe(SingleEmitter<QuerySnapshot> emitter) {
+                RxSingleHandler.assignOnTask(emitter, query.get(source));
+            }
+        });
+    }
+
+    private static Single<DocumentSnapshot> getDocumentSnapshot(@NonNull final DocumentReference ref,
+                                                                @NonNull final Source source) {
+        return Single.create(new SingleOnSubscribe<DocumentSnapshot>() {
+            @Override
+            public void subscribe(SingleEmitter<DocumentSnapshot> emitter) {
+                RxSingleHandler.assignOnTask(emitter, ref.get(source));
+            }
+        });
+    }
+
+    private static boolean sameData(DocumentSnapshot cached, DocumentSnapshot fetched) {
+        if (cached.exists() != fetched.exists()) return false;
+        if (!cached.exists()) return true;
+        Map<String, Object> cachedData = cached.getData();
+        return cachedData != null && cachedData.equals(fetched.getData());
+    }
+
+    /**
+     * Subscribe to both reads at once and emit the cached value while the server one isn't there, then the server
+     * value unless it is the same. A failed cache read only means there is nothing cached.
+     */
+    private static <T> Flowable<T> cacheThenServer(@NonNull final Single<T> cache,
+                                                   @NonNull final Single<T> server,
+                                                   @NonNull final BiPredicate<T, T> same) {
+        return Flowable.create(new FlowableOnSubscribe<T>() {
+            @Override
+            public void subscribe(final FlowableEmitter<T> emitter) {
+                final Object lock = new Object();
+                final AtomicBoolean serverDone = new AtomicBoolean();
+                final AtomicReference<T> cached = new AtomicReference<>();
+                CompositeDisposable reads = new CompositeDisposable();
+                emitter.setDisposable(reads);
+                reads.add(cache.subscribe(new Consumer<T>() {
+                    @Override
+                    public void accept(T value) {
+                        synchronized (lock) {
+                            if (serverDone.get()) return;
+                            cached.set(value);
+                            emitter.onNext(value);
+                        }
+                    }
+                }, new Consumer<Throwable>() {
+                    @Override
+                    public void accept(Throwable throwable) {
+                        // Nothing cached, the server value is emitted on its own.
+                    }
+                }));
+                reads.add(server.subscribe(new Consumer<T>() {
+                    @Override
+                    public void accept(T value) throws Exception {
+                        synchronized (lock) {
+                            serverDone.set(true);
+                            T cachedValue = cached.get();
+                            if (cachedValue == null || !same.test(cachedValue, value)) emitter.onNext(value);
+                            emitter.onComplete();
+                        }
+                    }
+                }, new Consumer<Throwable>() {
+                    @Override
+                    public void accept(Throwable throwable) {
+                        synchronized (lock) {
+                            serverDone.set(true);
+                            boolean offline = throwable instanceof FirebaseFirestoreException
+                                && ((FirebaseFirestoreException) throwable).getCode()
+                                == FirebaseFirestoreException.Code.UNAVAILABLE;
+                            if (offline && cached.get() != null) {
+                                emitter.onComplete();
+                            } else {
+                                emitter.onError(throwable);
+                            }
+                        }
+                    }
+                }));
+            }
+        }, BackpressureStrategy.BUFFER);
+    }
 }
@@ -0,0 +1,106 @@
+package durdinapps.rxfirebase2;
+
+
+import com.google.firebase.firestore.DocumentChange;
+
+import java.util.List;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Result of a query emission together with the changes from the previous emission. The changes follow the
+ * {@link DocumentChange} semantics: each index assumes the previous changes were already applied, so they can be
+ * dispatched in order to an adapter, e.g. as notifyItemRemoved, notifyItemInserted, notifyItemMoved and
+ * notifyItemChanged calls, without diffing the whole list again.
+ */
+public class RxFirestoreChangeSet<T> {
+
+    private final List<T> items;
+    private final List<Change<T>> changes;
+
+    RxFirestoreChangeSet(List<T> items, List<Change<T>> changes) {
+        this.items = items;
+        this.changes = changes;
+    }
+
+    /**
+     * @return an immutable list with the mapped documents of the query after these changes.
+     */
+    @NonNull
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * @return the changes done since the previous emission, in the order they have to be applied.
+     */
+    @NonNull
+    public List<Change<T>> getChanges() {
+        return changes;
+    }
+
+    /**
+     * Single change of a document inside the query result.
+     */
+    public static class Change<T> {
+
+        private final DocumentChange.Type type;
+        private final String id;
+        private final T value;
+        private final int oldIndex;
+        private final int newIndex;
+
+        Change(DocumentChange.Type type, String id, T value, int oldIndex, int newIndex) {
+            this.type = type;
+            this.id = id;
+            this.value = value;
+            this.oldIndex = oldIndex;
+            this.newIndex = newIndex;
+        }
+
+        /**
+         * @return the kind of change of the document.
+         */
+        @NonNull
+        public DocumentChange.Type getType() {
+            return type;
+        }
+
+        /**
+         * @return the id of the changed document.
+         */
+        @NonNull
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return the mapped value of the document after the change.
+         */
+        @NonNull
+        public T getValue() {
+            return value;
+        }
+
+        /**
+         * @return the position of the document before the change, or -1 if it was added.
+         */
+        public int getOldIndex() {
+            return oldIndex;
+        }
+
+        /**
+         * @return the position of the document after the change, or -1 if it was removed.
+         */
+        public int getNewIndex() {
+            return newIndex;
+        }
+
+        /**
+         * @return true if a modified document changed its position too.
+         */
+        public boolean isMove() {
+            return type == DocumentChange.Type.MODIFIED && oldIndex != newIndex;
+        }
+    }
+}
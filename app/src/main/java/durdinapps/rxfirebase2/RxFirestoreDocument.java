@@ -0,0 +1,46 @@
+package durdinapps.rxfirebase2;
+
+
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Result of reading a {@link DocumentReference} as part of a bulk read, which keeps the requested reference when
+ * the document doesn't exist.
+ */
+public class RxFirestoreDocument {
+
+    private final DocumentReference reference;
+    private final DocumentSnapshot snapshot;
+
+    RxFirestoreDocument(@NonNull DocumentReference reference, @Nullable DocumentSnapshot snapshot) {
+        this.reference = reference;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * @return the requested reference.
+     */
+    @NonNull
+    public DocumentReference getReference() {
+        return reference;
+    }
+
+    /**
+     * @return the snapshot of the document, or null if it doesn't exist.
+     */
+    @Nullable
+    public DocumentSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return true if the document exists.
+     */
+    public boolean exists() {
+        return snapshot != null;
+    }
+}
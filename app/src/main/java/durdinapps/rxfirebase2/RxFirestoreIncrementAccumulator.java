@@ -0,0 +1,145 @@
+package durdinapps.rxfirebase2;
+
+import androidx.annotation.NonNull;
+
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Completable;
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Sums the increments of numeric document fields in memory and writes the sums periodically, as one
+ * {@link FieldValue#increment(long)} per field merged into its document, in {@link WriteBatch batches} of up to
+ * {@link #BATCH_LIMIT} documents. Meant for counters which don't need to be up to date right away, e.g. analytics,
+ * so each event doesn't cost a write.
+ * <p>
+ * The sums of a failed batch are kept and sent by the next flush, the sums of the batches which succeeded aren't.
+ */
+public class RxFirestoreIncrementAccumulator extends IncrementAccumulator<RxFirestoreIncrementAccumulator.Key> {
+
+    /**
+     * Max number of writes in a {@link WriteBatch}, more documents are split in several batches.
+     */
+    public static final int BATCH_LIMIT = 500;
+
+    private final FirebaseFirestore firestore;
+
+    /**
+     * @param firestore instance of the accumulated documents.
+     * @param interval  time the first pending increment waits before the sums are written.
+     * @param unit      the unit of time of the interval.
+     * @param threshold number of pending increments which writes the sums without waiting for the interval.
+     */
+    public RxFirestoreIncrementAccumulator(@NonNull FirebaseFirestore firestore, long interval,
+                                           @NonNull TimeUnit unit, int threshold) {
+        this(firestore, interval, unit, threshold, Schedulers.computation());
+    }
+
+    /**
+     * @param firestore instance of the accumulated documents.
+     * @param interval  time the first pending increment waits before the sums are written.
+     * @param unit      the unit of time of the interval.
+     * @param threshold number of pending increments which writes the sums without waiting for the interval.
+     * @param scheduler {@link Scheduler} where the interval is timed.
+     */
+    public RxFirestoreIncrementAccumulator(@NonNull FirebaseFirestore firestore, long interval,
+                                           @NonNull TimeUnit unit, int threshold, @NonNull Scheduler scheduler) {
+        super(interval, unit, threshold, scheduler);
+        this.firestore = firestore;
+    }
+
+    /**
+     * Add the given value to a field of the given document with the next write. The document is created if it
+     * doesn't exist.
+     *
+     * @param ref   The given Document reference.
+     * @param field top level field to increment.
+     * @param delta value to add, negative to decrement.
+     */
+    public void increment(@NonNull DocumentReference ref, @NonNull String field, long delta) {
+        add(new Key(ref, field), delta);
+    }
+
+    @NonNull
+    @Override
+    List<Map<Key, Long>> chunks(@NonNull Map<Key, Long> deltas) {
+        List<Map<Key, Long>> chunks = new ArrayList<>();
+        Map<String, Map<Key, Long>> documents = new HashMap<>();
+        Map<Key, Long> chunk = null;
+        for (Map.Entry<Key, Long> delta : deltas.entrySet()) {
+            String path = delta.getKey().ref.getPath();
+            Map<Key, Long> document = documents.get(path);
+            if (document == null) {
+                if (chunk == null || documents.size() % BATCH_LIMIT == 0) {
+                    chunk = new LinkedHashMap<>();
+                    chunks.add(chunk);
+                }
+                document = chunk;
+                documents.put(path, document);
+            }
+            document.put(delta.getKey(), delta.getValue());
+        }
+        return chunks;
+    }
+
+    @NonNull
+    @Override
+    Completable write(@NonNull Map<Key, Long> deltas) {
+        Map<String, DocumentReference> documents = new LinkedHashMap<>();
+        Map<String, Map<String, Object>> updates = new HashMap<>();
+        for (Map.Entry<Key, Long> delta : deltas.entrySet()) {
+            String path = delta.getKey().ref.getPath();
+            Map<String, Object> fields = updates.get(path);
+            if (fields == null) {
+                fields = new HashMap<>();
+                updates.put(path, fields);
+                documents.put(path, delta.getKey().ref);
+            }
+            fields.put(delta.getKey().field, FieldValue.increment(delta.getValue()));
+        }
+
+        WriteBatch batch = firestore.batch();
+        for (Map.Entry<String, DocumentReference> document : documents.entrySet()) {
+            batch.set(document.getValue(), updates.get(document.getKey()), SetOptions.merge());
+        }
+        return RxFirestore.atomicOperation(batch);
+    }
+
+    /**
+     * Field of a document.
+     */
+    static final class Key {
+        final DocumentReference ref;
+        final String field;
+
+        Key(DocumentReference ref, String field) {
+            this.ref = ref;
+            this.field = field;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return ref.getPath().equals(key.ref.getPath()) && field.equals(key.field);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * ref.getPath().hashCode() + field.hashCode();
+        }
+    }
+}
@@ -5,14 +5,43 @@ import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.EventListener;
 import com.google.firebase.firestore.FirebaseFirestoreException;
 import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.MetadataChanges;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import io.reactivex.BackpressureStrategy;
 import io.reactivex.Completable;
 import io.reactivex.CompletableEmitter;
 import io.reactivex.CompletableOnSubscribe;
+import io.reactivex.CompletableSource;
+import io.reactivex.Flowable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Action;
 import io.reactivex.functions.Cancellable;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Predicate;
 
 public class RxFirestoreOfflineHandler {
 
+    /**
+     * Listeners waiting for the pending writes of each document to be acknowledged.
+     */
+    private static final Map<DocumentReference, Acknowledgement> acknowledgements = new HashMap<>();
+
+    /**
+     * Whether a snapshot has no write waiting for the server.
+     */
+    private static final Predicate<DocumentSnapshot> ACKNOWLEDGED = new Predicate<DocumentSnapshot>() {
+        @Override
+        public boolean test(DocumentSnapshot documentSnapshot) {
+            return !documentSnapshot.getMetadata().hasPendingWrites();
+        }
+    };
+
     /**
      * Method that listen a given reference and waits for a single change inside of it. However, this method
      * is just called in offline methods of add/set/delete in a new reference. That's why this reference should be
@@ -53,4 +82,92 @@ public class RxFirestoreOfflineHandler {
             }
         });
     }
+
+    /**
+     * Wait until the server acknowledges the pending writes of the given document, that is until a snapshot of it
+     * has no pending writes. Every call waiting on the same document at the same time shares a single listener,
+     * which is removed once the writes are acknowledged or nobody waits anymore.
+     * <p>
+     * A call which joins a listener already running could see the acknowledgement of the earlier writes before the
+     * snapshot of its own write, so it waits for a snapshot with pending writes first. It must be made after its
+     * write, like every offline method does.
+     *
+     * @param ref Document reference to be listened.
+     * @return A Completable which completes when the given document has no pending writes, right away if it has
+     * none.
+     */
+    @NonNull
+    public static Completable observeWriteAcknowledged(@NonNull final DocumentReference ref) {
+        return Completable.defer(new Callable<CompletableSource>() {
+            @Override
+            public CompletableSource call() {
+                final Acknowledgement acknowledgement;
+                final boolean joined;
+                synchronized (acknowledgements) {
+                    Acknowledgement running = acknowledgements.get(ref);
+                    joined = running != null;
+                    acknowledgement = joined ? running : new Acknowledgement(ref);
+                    if (!joined) acknowledgements.put(ref, acknowledgement);
+                    acknowledgement.waiters++;
+                }
+                Flowable<DocumentSnapshot> snapshots = acknowledgement.snapshots;
+                if (joined) snapshots = snapshots.skipWhile(ACKNOWLEDGED);
+                return snapshots
+                    .filter(ACKNOWLEDGED)
+                    .take(1)
+                    .ignoreElements()
+                    .doFinally(new Action() {
+                        @Override
+                        public void run() {
+                            acknowledgement.release();
+                        }
+                    });
+            }
+        });
+    }
+
+    /**
+     * Listener shared by the calls waiting on the same document, connected by the first one and disconnected by the
+     * last one.
+     */
+    private static final class Acknowledgement {
+        private final DocumentReference ref;
+        private final Flowable<DocumentSnapshot> snapshots;
+        private int waiters;
+        private Disposable connection;
+
+        Acknowledgement(final DocumentReference ref) {
+            this.ref = ref;
+            this.snapshots = RxFirestore
+                .observeDocumentRef(ref, MetadataChanges.INCLUDE, BackpressureStrategy.BUFFER)
+                .doOnError(new Consumer<Throwable>() {
+                    @Override
+                    public void accept(Throwable throwable) {
+                        // A failed listener can't be joined anymore, the next call starts a new one.
+                        synchronized (acknowledgements) {
+                            if (acknowledgements.get(ref) == Acknowledgement.this) acknowledgements.remove(ref);
+                        }
+                    }
+                })
+                .publish()
+                .autoConnect(1, new Consumer<Disposable>() {
+                    @Override
+                    public void accept(Disposable disposable) {
+                        synchronized (acknowledgements) {
+                            connection = disposable;
+                        }
+                    }
+                });
+        }
+
+        void release() {
+            Disposable disconnected;
+            synchronized (acknowledgements) {
+                if (--waiters > 0) return;
+                if (acknowledgements.get(ref) == this) acknowledgements.remove(ref);
+                disconnected = connection;
+            }
+            if (disconnected != null) disconnected.dispose();
+        }
+    }
 }
@@ -0,0 +1,342 @@
+package durdinapps.rxfirebase2;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.SetOptions;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Completable;
+import io.reactivex.CompletableEmitter;
+import io.reactivex.CompletableOnSubscribe;
+import io.reactivex.CompletableSource;
+import io.reactivex.Flowable;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.SingleSource;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.BehaviorSubject;
+import io.reactivex.subjects.CompletableSubject;
+import io.reactivex.subjects.PublishSubject;
+import io.reactivex.subjects.Subject;
+
+/**
+ * Queue of Firestore writes kept in an append-only file until the server acknowledges them, so they are sent
+ * again after the app restarts instead of being lost. Unlike the {@code *Offline} methods of {@link RxFirestore},
+ * each write completes once it is acknowledged: its document has no pending writes left and the server
+ * confirmed it.
+ * <p>
+ * Writes are issued in the order they were queued, which the client keeps for each document, with at most
+ * {@code maxConcurrency} of them waiting for acknowledgement at the same time. A write sent again after a restart
+ * is written again as it was queued. Data can only hold null, booleans, numbers, strings, lists and maps with
+ * string keys, other values like {@link com.google.firebase.firestore.FieldValue} can't be kept in the file.
+ */
+public class RxFirestoreOutbox {
+
+    private final FirebaseFirestore firestore;
+    private final OutboxLog log;
+    private final int maxConcurrency;
+    private final Scheduler scheduler;
+    private final Completable started;
+
+    private final Object lock = new Object();
+    private final Map<Long, PendingWrite> pending = new LinkedHashMap<>();
+    private final Queue<PendingWrite> queue = new ArrayDeque<>();
+    private int inFlight;
+    private long nextId;
+
+    private final Subject<Integer> depth = BehaviorSubject.createDefault(0).toSerialized();
+    private final Subject<Long> drained = PublishSubject.<Long>create().toSerialized();
+    private final Subject<Throwable> errors = PublishSubject.<Throwable>create().toSerialized();
+
+    /**
+     * @param firestore      FirebaseFirestore instance.
+     * @param file           file where the pending writes are kept, the same one on every run of the app.
+     * @param maxConcurrency maximum number of writes waiting for acknowledgement at the same time.
+     */
+    public RxFirestoreOutbox(@NonNull FirebaseFirestore firestore, @NonNull File file, int maxConcurrency) {
+        this(firestore, file, maxConcurrency, Schedulers.io());
+    }
+
+    /**
+     * @param firestore      FirebaseFirestore instance.
+     * @param file           file where the pending writes are kept, the same one on every run of the app.
+     * @param maxConcurrency maximum number of writes waiting for acknowledgement at the same time.
+     * @param scheduler      {@link Scheduler} where the file is read and written.
+     */
+    public RxFirestoreOutbox(@NonNull FirebaseFirestore firestore, @NonNull File file, int maxConcurrency,
+                             @NonNull Scheduler scheduler) {
+        if (maxConcurrency <= 0)
+            throw new IllegalArgumentException("maxConcurrency > 0 required but it was " + maxConcurrency);
+        this.firestore = firestore;
+        this.log = new OutboxLog(file);
+        this.maxConcurrency = maxConcurrency;
+        this.scheduler = scheduler;
+        this.started = Completable.fromAction(new Action() {
+            @Override
+            public void run() throws Exception {
+                List<IOException> corruption = new ArrayList<>();
+                List<OutboxLog.Write> writes = log.open(corruption);
+                for (IOException error : corruption) {
+                    errors.onNext(error);
+                }
+                replay(writes);
+            }
+        }).subscribeOn(scheduler).cache();
+    }
+
+    /**
+     * Read the file and send again the writes which weren't acknowledged on the previous runs. Queuing a write
+     * starts the outbox as well.
+     *
+     * @return a {@link Completable} which completes once the pending writes are queued.
+     */
+    @NonNull
+    public Completable start() {
+        return started;
+    }
+
+    /**
+     * Overwrites the document referred to by this DocumentReference once the previous writes are issued.
+     *
+     * @param ref  The given Document reference.
+     * @param data A map of the fields and values for the document.
+     * @return a {@link Completable} which completes when the server acknowledges the write.
+     */
+    @NonNull
+    public Completable setDocument(@NonNull DocumentReference ref, @NonNull Map<String, Object> data) {
+        return enqueue(OutboxLog.Write.SET, ref, data);
+    }
+
+    /**
+     * Writes to the document referred to by this DocumentReference once the previous writes are issued.
+     *
+     * @param ref   The given Document reference.
+     * @param data  A map of the fields and values for the document.
+     * @param merge true to merge the fields into the document, as {@link SetOptions#merge()}.
+     * @return a {@link Completable} which completes when the server acknowledges the write.
+     */
+    @NonNull
+    public Completable setDocument(@NonNull DocumentReference ref, @NonNull Map<String, Object> data,
+                                   boolean merge) {
+        return enqueue(merge ? OutboxLog.Write.MERGE : OutboxLog.Write.SET, ref, data);
+    }
+
+    /**
+     * Adds a new document to this collection with the specified data, assigning it a document ID automatically,
+     * once the previous writes are issued.
+     *
+     * @param ref  The given Collection reference.
+     * @param data A Map containing the data for the new document.
+     * @return a {@link Single} which emits the {@link DocumentReference} of the added Document when the server
+     * acknowledges the write.
+     */
+    @NonNull
+    public Single<DocumentReference> addDocument(@NonNull final CollectionReference ref,
+                                                 @NonNull final Map<String, Object> data) {
+        return Single.defer(new Callable<SingleSource<DocumentReference>>() {
+            @Override
+            public SingleSource<DocumentReference> call() {
+                DocumentReference document = ref.document();
+                return setDocument(document, data).toSingleDefault(document);
+            }
+        });
+    }
+
+    /**
+     * Updates fields in the document referred to by this DocumentReference once the previous writes are issued.
+     *
+     * @param ref             The given Document reference.
+     * @param updateFieldsMap A map of field / value pairs to update.
+     * @return a {@link Completable} which completes when the server acknowledges the write.
+     */
+    @NonNull
+    public Completable updateDocument(@NonNull DocumentReference ref, @NonNull Map<String, Object> updateFieldsMap) {
+        return enqueue(OutboxLog.Write.UPDATE, ref, updateFieldsMap);
+    }
+
+    /**
+     * Deletes the document referred to by this DocumentReference once the previous writes are issued.
+     *
+     * @param ref The given Document reference.
+     * @return a {@link Completable} which completes when the server acknowledges the write.
+     */
+    @NonNull
+    public Completable deleteDocument(@NonNull DocumentReference ref) {
+        return enqueue(OutboxLog.Write.DELETE, ref, null);
+    }
+
+    /**
+     * @return a {@link Flowable} which emits the number of writes not acknowledged yet every time it changes.
+     */
+    @NonNull
+    public Flowable<Integer> observeQueueDepth() {
+        return depth.toFlowable(BackpressureStrategy.LATEST).distinctUntilChanged();
+    }
+
+    /**
+     * @param window time between emissions.
+     * @param unit   the unit of time of the window.
+     * @return a {@link Flowable} which emits the writes acknowledged per second within each window.
+     */
+    @NonNull
+    public Flowable<Double> observeDrainRate(long window, @NonNull TimeUnit unit) {
+        return observeDrainRate(window, unit, Schedulers.computation());
+    }
+
+    /**
+     * @param window    time between emissions.
+     * @param unit      the unit of time of the window.
+     * @param scheduler {@link Scheduler} where the window is timed.
+     * @return a {@link Flowable} which emits the writes acknowledged per second within each window.
+     */
+    @NonNull
+    public Flowable<Double> observeDrainRate(long window, @NonNull TimeUnit unit, @NonNull Scheduler scheduler) {
+        final double seconds = unit.toNanos(window) / (double) TimeUnit.SECONDS.toNanos(1);
+        return drained.toFlowable(BackpressureStrategy.BUFFER)
+            .buffer(window, unit, scheduler)
+            .map(new Function<List<Long>, Double>() {
+                @Override
+                public Double apply(List<Long> acknowledged) {
+                    return acknowledged.size() / seconds;
+                }
+            });
+    }
+
+    /**
+     * @return a {@link Flowable} which emits the errors of the writes rejected by the server, including the ones
+     * sent again after a restart, the errors writing the file and the corrupt records found reading it on start.
+     */
+    @NonNull
+    public Flowable<Throwable> observeErrors() {
+        return errors.toFlowable(BackpressureStrategy.BUFFER);
+    }
+
+    private Completable enqueue(final byte type, final DocumentReference ref, @Nullable final Map<String, Object> data) {
+        return started.andThen(Completable.defer(new Callable<CompletableSource>() {
+            @Override
+            public CompletableSource call() throws Exception {
+                PendingWrite write;
+                synchronized (lock) {
+                    write = new PendingWrite(new OutboxLog.Write(nextId, type, ref.getPath(), data));
+                    log.append(write.write);
+                    nextId++;
+                    pending.put(write.write.id, write);
+                    queue.offer(write);
+                    depth.onNext(pending.size());
+                    drain();
+                }
+                return write.result;
+            }
+        }).subscribeOn(scheduler));
+    }
+
+    private void replay(List<OutboxLog.Write> writes) {
+        synchronized (lock) {
+            for (OutboxLog.Write write : writes) {
+                PendingWrite pendingWrite = new PendingWrite(write);
+                pending.put(write.id, pendingWrite);
+                queue.offer(pendingWrite);
+                nextId = Math.max(nextId, write.id + 1);
+            }
+            depth.onNext(pending.size());
+            drain();
+        }
+    }
+
+    /**
+     * Issue the queued writes while there is room, holding the lock so they are issued in order.
+     */
+    private void drain() {
+        while (inFlight < maxConcurrency && !queue.isEmpty()) {
+            inFlight++;
+            send(queue.poll());
+        }
+    }
+
+    private void send(final PendingWrite write) {
+        final DocumentReference ref = firestore.document(write.write.path);
+        Completable issued = Completable.create(new CompletableOnSubscribe() {
+            @Override
+            public void subscribe(CompletableEmitter emitter) {
+                RxCompletableHandler.assignOnTask(emitter, taskOf(ref, write.write));
+            }
+        });
+        Completable acknowledged = RxFirestoreOfflineHandler.observeWriteAcknowledged(ref);
+        Completable.mergeArray(issued, acknowledged)
+            .observeOn(scheduler)
+            .subscribe(new Action() {
+                @Override
+                public void run() {
+                    done(write, null);
+                }
+            }, new Consumer<Throwable>() {
+                @Override
+                public void accept(Throwable throwable) {
+                    done(write, throwable);
+                }
+            });
+    }
+
+    private void done(PendingWrite write, @Nullable Throwable error) {
+        synchronized (lock) {
+            try {
+                log.appendDone(write.write.id);
+                if (pending.size() == 1) log.clear();
+            } catch (Exception e) {
+                errors.onNext(e);
+            }
+            pending.remove(write.write.id);
+            inFlight--;
+            depth.onNext(pending.size());
+            drain();
+        }
+        if (error == null) {
+            drained.onNext(write.write.id);
+            write.result.onComplete();
+        } else {
+            errors.onNext(error);
+            write.result.onError(error);
+        }
+    }
+
+    private static Task<Void> taskOf(DocumentReference ref, OutboxLog.Write write) {
+        switch (write.type) {
+            case OutboxLog.Write.MERGE:
+                return ref.set(write.data, SetOptions.merge());
+            case OutboxLog.Write.UPDATE:
+                return ref.update(write.data);
+            case OutboxLog.Write.DELETE:
+                return ref.delete();
+            default:
+                return ref.set(write.data);
+        }
+    }
+
+    private static final class PendingWrite {
+        final OutboxLog.Write write;
+        final CompletableSubject result = CompletableSubject.create();
+
+        PendingWrite(OutboxLog.Write write) {
+            this.write = write;
+        }
+    }
+}
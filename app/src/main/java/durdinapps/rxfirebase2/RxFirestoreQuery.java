@@ -0,0 +1,361 @@
+package durdinapps.rxfirebase2;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.MetadataChanges;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Flowable;
+import io.reactivex.FlowableEmitter;
+import io.reactivex.FlowableOnSubscribe;
+import io.reactivex.Maybe;
+import io.reactivex.Single;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
+import io.reactivex.functions.Predicate;
+
+/**
+ * Basic builder to read Firestore documents referenced from another query or from an array field of a document,
+ * the Firestore counterpart of {@link RxFirebaseQuery}. The referenced documents are read in chunked whereIn
+ * queries through {@link RxFirestore#getDocuments(List, int, int)} instead of one read per reference.
+ */
+public class RxFirestoreQuery {
+    private Maybe<List<DocumentReference>> whereMaybe;
+    private Flowable<List<DocumentReference>> whereFlowable;
+    private int chunkSize = RxFirestore.WHERE_IN_LIMIT;
+    private int maxConcurrency = 4;
+
+    private RxFirestoreQuery() {
+    }
+
+    /**
+     * Retrieve a new instance for {@link RxFirestoreQuery}.
+     */
+    public static RxFirestoreQuery getInstance() {
+        return new RxFirestoreQuery();
+    }
+
+    /**
+     * Generate a filter which reads the documents of the given collection with the same id as the documents
+     * returned by the given query, e.g. the items referenced by a favorites collection.
+     *
+     * @param from     collection where the referenced documents are.
+     * @param whereRef query which returns one document per referenced id.
+     * @return the current instance of {@link RxFirestoreQuery}.
+     */
+    @NonNull
+    public RxFirestoreQuery filterByIds(@NonNull final CollectionReference from,
+                                        @NonNull Query whereRef) {
+        return filter(whereRef, new Function<QuerySnapshot, List<DocumentReference>>() {
+            @Override
+            public List<DocumentReference> apply(QuerySnapshot querySnapshot) {
+                List<DocumentReference> refs = new ArrayList<>();
+                for (DocumentSnapshot documentSnapshot : querySnapshot.getDocuments()) {
+                    refs.add(from.document(documentSnapshot.getId()));
+                }
+                return refs;
+            }
+        });
+    }
+
+    /**
+     * Generate a filter which reads the documents referenced by an array field of the given document. The array
+     * can hold document ids of the given collection or {@link DocumentReference references}.
+     *
+     * @param from     collection where the referenced documents are.
+     * @param whereDoc document which holds the array field.
+     * @param field    name of the array field.
+     * @return the current instance of {@link RxFirestoreQuery}.
+     */
+    @NonNull
+    public RxFirestoreQuery filterByArrayField(@NonNull final CollectionReference from,
+                                               @NonNull DocumentReference whereDoc,
+                                               @NonNull final String field) {
+        final Function<DocumentSnapshot, List<DocumentReference>> mapper =
+            new Function<DocumentSnapshot, List<DocumentReference>>() {
+                @Override
+                public List<DocumentReference> apply(DocumentSnapshot documentSnapshot) {
+                    List<DocumentReference> refs = new ArrayList<>();
+                    Object values = documentSnapshot.exists() ? documentSnapshot.get(field) : null;
+                    if (values instanceof List) {
+                        for (Object value : (List<?>) values) {
+                            if (value instanceof DocumentReference) {
+                                refs.add((DocumentReference) value);
+                            } else if (value != null) {
+                                refs.add(from.document(value.toString()));
+                            }
+                        }
+                    }
+                    return refs;
+                }
+            };
+        whereMaybe = RxFirestore.getDocument(whereDoc).map(mapper);
+        whereFlowable = RxFirestore.observeDocumentRef(whereDoc, MetadataChanges.EXCLUDE, BackpressureStrategy.LATEST)
+            .map(mapper);
+        return this;
+    }
+
+    /**
+     * Generate a filter based on a given function.
+     *
+     * @param whereRef query that you use as a filter to create your references.
+     * @param mapper   Custom mapper to map the retrieved query to the {@link DocumentReference references} to read.
+     * @return the current instance of {@link RxFirestoreQuery}.
+     */
+    @NonNull
+    public RxFirestoreQuery filter(@NonNull Query whereRef,
+                                   @NonNull final Function<? super QuerySnapshot, ? extends List<DocumentReference>> mapper) {
+        whereMaybe = RxFirestore.getCollection(whereRef).map(mapper);
+        whereFlowable = RxFirestore.observeQueryRef(whereRef, MetadataChanges.EXCLUDE, BackpressureStrategy.LATEST)
+            .map(mapper);
+        return this;
+    }
+
+    /**
+     * Set how many ids are sent in each whereIn query, {@link RxFirestore#WHERE_IN_LIMIT} by default.
+     *
+     * @return the current instance of {@link RxFirestoreQuery}.
+     */
+    @NonNull
+    public RxFirestoreQuery chunkSize(int chunkSize) {
+        if (chunkSize <= 0) throw new IllegalArgumentException("chunkSize > 0 required but it was " + chunkSize);
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    /**
+     * Set how many whereIn queries can run at the same time, 4 by default. {@link #observe()} keeps one listening
+     * query per chunk and doesn't use it.
+     *
+     * @return the current instance of {@link RxFirestoreQuery}.
+     */
+    @NonNull
+    public RxFirestoreQuery maxConcurrency(int maxConcurrency) {
+        if (maxConcurrency <= 0)
+            throw new IllegalArgumentException("maxConcurrency > 0 required but it was " + maxConcurrency);
+        this.maxConcurrency = maxConcurrency;
+        return this;
+    }
+
+    /**
+     * Retrieve the final result as a {@link Single} which emmit one {@link RxFirestoreDocument} per reference, in
+     * the order given by the filter, even for the documents which don't exist.
+     */
+    @NonNull
+    public Single<List<RxFirestoreDocument>> asList() {
+        checkFilter();
+        return whereMaybe.toSingle(Collections.<DocumentReference>emptyList())
+            .flatMap(new Function<List<DocumentReference>, Single<List<RxFirestoreDocument>>>() {
+                @Override
+                public Single<List<RxFirestoreDocument>> apply(List<DocumentReference> refs) {
+                    return RxFirestore.getDocuments(refs, chunkSize, maxConcurrency);
+                }
+            });
+    }
+
+    /**
+     * Retrieve the final result as a {@link Single} which emmit the existing documents mapped to a given type.
+     *
+     * @param mapper specific function to map each document.
+     */
+    @NonNull
+    public <T> Single<List<T>> asList(@NonNull final Function<? super DocumentSnapshot, ? extends T> mapper) {
+        return asList().map(new Function<List<RxFirestoreDocument>, List<T>>() {
+            @Override
+            public List<T> apply(List<RxFirestoreDocument> documents) throws Exception {
+                List<T> items = new ArrayList<>(documents.size());
+                for (RxFirestoreDocument document : documents) {
+                    if (document.exists()) items.add(mapper.apply(document.getSnapshot()));
+                }
+                return items;
+            }
+        });
+    }
+
+    /**
+     * Keep listening to the filter and to the referenced documents, and emit them every time the references or
+     * any of the documents change, including the documents which are created or deleted later. The documents are
+     * listened to with chunked whereIn queries, only the references which weren't listened to yet get a new
+     * query, and a query is removed once none of its references is left. The first list is emitted once every
+     * reference has been read.
+     *
+     * @return a {@link Flowable} which emits one {@link RxFirestoreDocument} per reference every time the
+     * references or the documents change.
+     */
+    @NonNull
+    public Flowable<List<RxFirestoreDocument>> observe() {
+        checkFilter();
+        final Flowable<List<DocumentReference>> where = whereFlowable;
+        final int chunkSize = this.chunkSize;
+        return Flowable.create(new FlowableOnSubscribe<List<RxFirestoreDocument>>() {
+            @Override
+            public void subscribe(final FlowableEmitter<List<RxFirestoreDocument>> emitter) {
+                final Object lock = new Object();
+                final Map<String, Chunk> chunks = new HashMap<>();
+                final List<List<DocumentReference>> current = new ArrayList<>(1);
+                final CompositeDisposable listeners = new CompositeDisposable();
+                emitter.setDisposable(listeners);
+
+                final Consumer<Throwable> onError = new Consumer<Throwable>() {
+                    @Override
+                    public void accept(Throwable throwable) {
+                        emitter.tryOnError(throwable);
+                    }
+                };
+                final Runnable emitIfReady = new Runnable() {
+                    @Override
+                    public void run() {
+                        if (current.isEmpty()) return;
+                        List<DocumentReference> refs = current.get(0);
+                        List<RxFirestoreDocument> documents = new ArrayList<>(refs.size());
+                        for (DocumentReference ref : refs) {
+                            Chunk chunk = chunks.get(ref.getPath());
+                            if (chunk == null || chunk.found == null) return;
+                            documents.add(new RxFirestoreDocument(ref, chunk.found.get(ref.getPath())));
+                        }
+                        emitter.onNext(documents);
+                    }
+                };
+
+                listeners.add(where.subscribe(new Consumer<List<DocumentReference>>() {
+                    @Override
+                    public void accept(List<DocumentReference> refs) {
+                        synchronized (lock) {
+                            current.clear();
+                            current.add(refs);
+                            Set<String> referenced = new HashSet<>();
+                            List<DocumentReference> added = new ArrayList<>();
+                            for (DocumentReference ref : refs) {
+                                if (referenced.add(ref.getPath()) && !chunks.containsKey(ref.getPath()))
+                                    added.add(ref);
+                            }
+                            Iterator<Map.Entry<String, Chunk>> entries = chunks.entrySet().iterator();
+                            while (entries.hasNext()) {
+                                Map.Entry<String, Chunk> entry = entries.next();
+                                if (referenced.contains(entry.getKey())) continue;
+                                entries.remove();
+                                if (--entry.getValue().references == 0) listeners.remove(entry.getValue().listener);
+                            }
+                            for (final Chunk chunk : chunkByCollection(added, chunkSize)) {
+                                for (String path : chunk.paths) {
+                                    chunks.put(path, chunk);
+                                }
+                                chunk.listener = RxFirestore.observeQueryRef(chunk.query, MetadataChanges.EXCLUDE,
+                                    BackpressureStrategy.LATEST).subscribe(new Consumer<QuerySnapshot>() {
+                                    @Override
+                                    public void accept(QuerySnapshot querySnapshot) {
+                                        synchronized (lock) {
+                                            Map<String, DocumentSnapshot> found = new HashMap<>();
+                                            for (DocumentSnapshot documentSnapshot : querySnapshot.getDocuments()) {
+                                                found.put(documentSnapshot.getReference().getPath(), documentSnapshot);
+                                            }
+                                            chunk.found = found;
+                                            if (chunk.references > 0) emitIfReady.run();
+                                        }
+                                    }
+                                }, onError);
+                                listeners.add(chunk.listener);
+                            }
+                            emitIfReady.run();
+                        }
+                    }
+                }, onError));
+            }
+        }, BackpressureStrategy.LATEST);
+    }
+
+    /**
+     * Retrieve the existing referenced documents as a {@link Flowable} which emmit {@link DocumentSnapshot}.
+     */
+    @NonNull
+    public Flowable<DocumentSnapshot> create() {
+        return asList().flattenAsFlowable(new Function<List<RxFirestoreDocument>, Iterable<RxFirestoreDocument>>() {
+            @Override
+            public Iterable<RxFirestoreDocument> apply(List<RxFirestoreDocument> documents) {
+                return documents;
+            }
+        }).filter(new Predicate<RxFirestoreDocument>() {
+            @Override
+            public boolean test(RxFirestoreDocument document) {
+                return document.exists();
+            }
+        }).map(new Function<RxFirestoreDocument, DocumentSnapshot>() {
+            @Override
+            public DocumentSnapshot apply(RxFirestoreDocument document) {
+                return document.getSnapshot();
+            }
+        });
+    }
+
+    /**
+     * Group the given references by collection in whereIn queries of at most chunkSize ids.
+     */
+    private static List<Chunk> chunkByCollection(List<DocumentReference> refs, int chunkSize) {
+        Map<String, List<DocumentReference>> collections = new LinkedHashMap<>();
+        for (DocumentReference ref : refs) {
+            String path = ref.getParent().getPath();
+            List<DocumentReference> collectionRefs = collections.get(path);
+            if (collectionRefs == null) {
+                collectionRefs = new ArrayList<>();
+                collections.put(path, collectionRefs);
+            }
+            collectionRefs.add(ref);
+        }
+        List<Chunk> chunks = new ArrayList<>();
+        for (List<DocumentReference> collectionRefs : collections.values()) {
+            for (int i = 0; i < collectionRefs.size(); i += chunkSize) {
+                List<DocumentReference> chunkRefs = collectionRefs.subList(i, Math.min(i + chunkSize, collectionRefs.size()));
+                List<String> ids = new ArrayList<>(chunkRefs.size());
+                List<String> paths = new ArrayList<>(chunkRefs.size());
+                for (DocumentReference ref : chunkRefs) {
+                    ids.add(ref.getId());
+                    paths.add(ref.getPath());
+                }
+                chunks.add(new Chunk(chunkRefs.get(0).getParent().whereIn(FieldPath.documentId(), ids), paths));
+            }
+        }
+        return chunks;
+    }
+
+    private void checkFilter() {
+        if (whereMaybe == null)
+            throw new IllegalArgumentException("It's necessary define a where function to retrieve data");
+    }
+
+    /**
+     * whereIn query listened to by {@link #observe()} and the documents it found last.
+     */
+    private static final class Chunk {
+        final Query query;
+        final List<String> paths;
+        int references;
+        Disposable listener;
+        @Nullable
+        Map<String, DocumentSnapshot> found;
+
+        Chunk(Query query, List<String> paths) {
+            this.query = query;
+            this.paths = paths;
+            this.references = paths.size();
+        }
+    }
+}
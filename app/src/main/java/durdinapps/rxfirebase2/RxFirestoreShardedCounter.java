@@ -0,0 +1,124 @@
+package durdinapps.rxfirebase2;
+
+import androidx.annotation.NonNull;
+
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.MetadataChanges;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.SetOptions;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.Single;
+import io.reactivex.functions.Function;
+
+/**
+ * Counter spread across a number of shard documents of a collection, {@code "0"} to {@code "N-1"}, each one with
+ * its part of the count in the {@value #COUNT_FIELD} field. A document accepts about one write per second, so the
+ * shards multiply the rate of increments the counter can take. The value of the counter is the sum of its shards.
+ * <p>
+ * Each increment is a {@link FieldValue#increment(long)} merged into its shard, which is applied by the server and
+ * never conflicts, so it needs no transaction.
+ */
+public class RxFirestoreShardedCounter {
+
+    /**
+     * Field of the shard documents which holds their count.
+     */
+    public static final String COUNT_FIELD = "count";
+
+    private static final Function<QuerySnapshot, Long> SUM_OF_SHARDS = new Function<QuerySnapshot, Long>() {
+        @Override
+        public Long apply(QuerySnapshot querySnapshot) {
+            long sum = 0;
+            for (DocumentSnapshot shard : querySnapshot.getDocuments()) {
+                Long value = shard.getLong(COUNT_FIELD);
+                if (value != null) sum += value;
+            }
+            return sum;
+        }
+    };
+
+    private final CollectionReference ref;
+    private final int shards;
+    private final Random random = new Random();
+
+    /**
+     * @param ref    collection which holds the shards of the counter and nothing else.
+     * @param shards number of shards.
+     */
+    public RxFirestoreShardedCounter(@NonNull CollectionReference ref, int shards) {
+        if (shards <= 0) throw new IllegalArgumentException("shards > 0 required but it was " + shards);
+        this.ref = ref;
+        this.shards = shards;
+    }
+
+    /**
+     * Add the given value to a random shard.
+     *
+     * @param delta value to add, negative to decrement.
+     * @return a {@link Completable} which completes when the increment is written.
+     */
+    @NonNull
+    public Completable increment(long delta) {
+        int shard;
+        synchronized (random) {
+            shard = random.nextInt(shards);
+        }
+        return increment(shard, delta);
+    }
+
+    /**
+     * Add the given value to the shard of the given client, so each client keeps writing on the same shard.
+     *
+     * @param delta    value to add, negative to decrement.
+     * @param clientId stable id of the client, e.g. the user id.
+     * @return a {@link Completable} which completes when the increment is written.
+     */
+    @NonNull
+    public Completable increment(long delta, @NonNull String clientId) {
+        return increment((clientId.hashCode() & Integer.MAX_VALUE) % shards, delta);
+    }
+
+    /**
+     * @return a {@link Single} which emits the sum of the shards, 0 if there is none.
+     */
+    @NonNull
+    public Single<Long> getCount() {
+        return RxFirestore.getCollection(ref).map(SUM_OF_SHARDS).toSingle(0L);
+    }
+
+    /**
+     * Listen to the shards and emit their sum every time it changes.
+     *
+     * @return a {@link Flowable} which emits the value of the counter.
+     */
+    @NonNull
+    public Flowable<Long> observeCount() {
+        return RxFirestore.observeQueryRef(ref, MetadataChanges.EXCLUDE, BackpressureStrategy.LATEST)
+            .map(SUM_OF_SHARDS)
+            .distinctUntilChanged();
+    }
+
+    /**
+     * @param shard index of the shard.
+     * @return the document of the given shard.
+     */
+    @NonNull
+    public DocumentReference getShard(int shard) {
+        return ref.document(String.valueOf(shard));
+    }
+
+    private Completable increment(int shard, long delta) {
+        Map<String, Object> update = Collections.<String, Object>singletonMap(COUNT_FIELD, FieldValue.increment(delta));
+        return RxFirestore.setDocument(getShard(shard), update, SetOptions.merge());
+    }
+}
@@ -0,0 +1,50 @@
+package durdinapps.rxfirebase2;
+
+import androidx.annotation.Nullable;
+
+import com.google.firebase.firestore.Transaction;
+
+/**
+ * Outcome of a Firestore transaction run through {@link RxFirestore#runTransactionForResult}.
+ */
+public class RxFirestoreTransactionResult<T> {
+
+    private final T value;
+    private final int attempts;
+
+    RxFirestoreTransactionResult(@Nullable T value, int attempts) {
+        this.value = value;
+        this.attempts = attempts;
+    }
+
+    /**
+     * @return the value returned by the {@link Transaction.Function} in its committed attempt.
+     */
+    @Nullable
+    public T getValue() {
+        return value;
+    }
+
+    /**
+     * @return how many times the function ran, including the retries of the client when a read document changed
+     * before the commit and the retries of the backoff policy.
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * @return how many times the function ran again after the first run.
+     */
+    public int getRetries() {
+        return Math.max(0, attempts - 1);
+    }
+
+    @Override
+    public String toString() {
+        return "RxFirestoreTransactionResult{" +
+            "value=" + value +
+            ", attempts=" + attempts +
+            '}';
+    }
+}
@@ -0,0 +1,166 @@
+package durdinapps.rxfirebase2;
+
+import androidx.annotation.NonNull;
+
+import com.google.firebase.firestore.DocumentReference;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Completable;
+import io.reactivex.CompletableEmitter;
+import io.reactivex.CompletableOnSubscribe;
+import io.reactivex.CompletableSource;
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.CompletableSubject;
+
+/**
+ * Merges the field updates done on the same {@link DocumentReference} within a time window into a single
+ * {@link DocumentReference#update(Map)}. Every merged call completes with the result of that update.
+ * <p>
+ * The window starts with the first update of a document, and a later value for a field replaces the pending one.
+ * Updates are issued in the order their windows close, and the client keeps the order of the writes done on a
+ * document, so the order per document is preserved. An update which conflicts with a pending field, like
+ * {@code "a"} and {@code "a.b"}, sends the pending update first. Updates are sent while holding the pending
+ * updates, so an update taken out of them is always issued before the ones which replace it. Once merged, an
+ * update is sent even if its {@link Completable} is disposed.
+ */
+public class RxFirestoreWriteCoalescer {
+
+    private final long window;
+    private final TimeUnit unit;
+    private final Scheduler scheduler;
+    private final Map<String, PendingUpdate> pending = new HashMap<>();
+
+    /**
+     * @param window time pending updates wait for more updates of the same document.
+     * @param unit   the unit of time of the window.
+     */
+    public RxFirestoreWriteCoalescer(long window, @NonNull TimeUnit unit) {
+        this(window, unit, Schedulers.computation());
+    }
+
+    /**
+     * @param window    time pending updates wait for more updates of the same document.
+     * @param unit      the unit of time of the window.
+     * @param scheduler {@link Scheduler} where the window is timed.
+     */
+    public RxFirestoreWriteCoalescer(long window, @NonNull TimeUnit unit, @NonNull Scheduler scheduler) {
+        this.window = window;
+        this.unit = unit;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Updates a field in the document referred to by this DocumentReference once the window of the document closes.
+     *
+     * @param ref   The given Document reference.
+     * @param field The field to update. Fields can contain dots to reference a nested field within the document.
+     * @param value The new value of the field.
+     * @return a {@link Completable} which completes when the merged update is done.
+     */
+    @NonNull
+    public Completable updateDocument(@NonNull final DocumentReference ref,
+                                      @NonNull final String field,
+                                      final Object value) {
+        return updateDocument(ref, Collections.singletonMap(field, value));
+    }
+
+    /**
+     * Updates fields in the document referred to by this DocumentReference once the window of the document closes.
+     *
+     * @param ref             The given Document reference.
+     * @param updateFieldsMap A map of field / value pairs to update. Fields can contain dots to reference nested fields within the document.
+     * @return a {@link Completable} which completes when the merged update is done.
+     */
+    @NonNull
+    public Completable updateDocument(@NonNull final DocumentReference ref,
+                                      @NonNull final Map<String, Object> updateFieldsMap) {
+        return Completable.defer(new Callable<CompletableSource>() {
+            @Override
+            public CompletableSource call() {
+                return enqueue(ref, updateFieldsMap);
+            }
+        });
+    }
+
+    /**
+     * Sends every pending update without waiting for its window to close.
+     */
+    public void flush() {
+        synchronized (pending) {
+            Map<String, PendingUpdate> updates = new HashMap<>(pending);
+            pending.clear();
+            for (PendingUpdate update : updates.values()) {
+                update.send();
+            }
+        }
+    }
+
+    private Completable enqueue(DocumentReference ref, Map<String, Object> fields) {
+        final String path = ref.getPath();
+        PendingUpdate conflicting = null;
+        PendingUpdate update;
+        synchronized (pending) {
+            update = pending.get(path);
+            if (update != null && update.conflictsWith(fields)) {
+                conflicting = pending.remove(path);
+                update = null;
+            }
+            if (update == null) {
+                update = new PendingUpdate(ref);
+                pending.put(path, update);
+                final PendingUpdate scheduled = update;
+                scheduler.scheduleDirect(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (pending) {
+                            if (pending.get(path) != scheduled) return;
+                            pending.remove(path);
+                            scheduled.send();
+                        }
+                    }
+                }, window, unit);
+            }
+            update.fields.putAll(fields);
+            if (conflicting != null) conflicting.send();
+        }
+        return update.result;
+    }
+
+    private static final class PendingUpdate {
+        private final DocumentReference ref;
+        private final Map<String, Object> fields = new LinkedHashMap<>();
+        private final CompletableSubject result = CompletableSubject.create();
+
+        PendingUpdate(DocumentReference ref) {
+            this.ref = ref;
+        }
+
+        /**
+         * @return true if any of the given fields is a parent or a child of a pending field.
+         */
+        boolean conflictsWith(Map<String, Object> updates) {
+            for (String field : updates.keySet()) {
+                for (String pendingField : fields.keySet()) {
+                    if (field.startsWith(pendingField + ".") || pendingField.startsWith(field + ".")) return true;
+                }
+            }
+            return false;
+        }
+
+        void send() {
+            Completable.create(new CompletableOnSubscribe() {
+                @Override
+                public void subscribe(CompletableEmitter emitter) {
+                    RxCompletableHandler.assignOnTask(emitter, ref.update(fields));
+                }
+            }).subscribe(result);
+        }
+    }
+}
@@ -2,12 +2,15 @@ package durdinapps.rxfirebase2;
 
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
 
+import java.util.concurrent.Executor;
+
 import durdinapps.rxfirebase2.exceptions.RxFirebaseNullDataException;
 import io.reactivex.MaybeEmitter;
 
@@ -20,14 +23,45 @@ public class RxHandler<T> implements OnSuccessListener<T>, OnFailureListener, On
     }
 
     public static <T> void assignOnTask(MaybeEmitter<? super T> emitter, Task<T> task) {
-        RxHandler handler = new RxHandler(emitter);
-        task.addOnSuccessListener(handler);
-        task.addOnFailureListener(handler);
-        try {
-            task.addOnCompleteListener(handler);
-        } catch (Throwable t) {
-            // ignore
+        assignOnTask(emitter, task, RxFirebasePlugins.getCallbackExecutor());
+    }
+
+    public static <T> void assignOnTask(MaybeEmitter<? super T> emitter, Task<T> task, @Nullable Executor executor) {
+        final RxHandler<T> handler = new RxHandler<>(emitter);
+        if (task.isComplete()) {
+            handler.dispatchCompleted(task);
+            return;
+        }
+        if (executor == null) {
+            task.addOnSuccessListener(handler);
+            task.addOnFailureListener(handler);
+            try {
+                task.addOnCompleteListener(handler);
+            } catch (Throwable t) {
+                // ignore
+            }
+        } else {
+            // Listeners on a multi-threaded executor can run in any order, so a single one dispatches the result.
+            task.addOnCompleteListener(executor, new OnCompleteListener<T>() {
+                @Override
+                public void onComplete(@NonNull Task<T> completed) {
+                    handler.dispatchCompleted(completed);
+                }
+            });
+        }
+    }
+
+    /**
+     * Replays the listener sequence inline for a finished {@link Task}, either complete at subscription time, so
+     * the result doesn't wait for a main thread callback, or completed on an executor.
+     */
+    private void dispatchCompleted(Task<T> task) {
+        if (task.isSuccessful()) {
+            onSuccess(task.getResult());
+        } else if (task.getException() != null) {
+            onFailure(task.getException());
         }
+        onComplete(task);
     }
 
     @Override
@@ -0,0 +1,75 @@
+package durdinapps.rxfirebase2;
+
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Task;
+
+import java.util.concurrent.Executor;
+
+import durdinapps.rxfirebase2.exceptions.RxFirebaseNullDataException;
+import io.reactivex.SingleEmitter;
+
+public class RxSingleHandler<T> implements OnSuccessListener<T>, OnFailureListener {
+
+    private final SingleEmitter<? super T> emitter;
+
+    private RxSingleHandler(SingleEmitter<? super T> emitter) {
+        this.emitter = emitter;
+    }
+
+    public static <T> void assignOnTask(SingleEmitter<? super T> emitter, Task<T> task) {
+        assignOnTask(emitter, task, RxFirebasePlugins.getCallbackExecutor());
+    }
+
+    public static <T> void assignOnTask(SingleEmitter<? super T> emitter, Task<T> task, @Nullable Executor executor) {
+        final RxSingleHandler<T> handler = new RxSingleHandler<>(emitter);
+        if (task.isComplete()) {
+            handler.dispatchCompleted(task);
+            return;
+        }
+        if (executor == null) {
+            task.addOnSuccessListener(handler);
+            task.addOnFailureListener(handler);
+        } else {
+            // Listeners on a multi-threaded executor can run in any order, so a single one dispatches the result.
+            task.addOnCompleteListener(executor, new OnCompleteListener<T>() {
+                @Override
+                public void onComplete(@NonNull Task<T> completed) {
+                    handler.dispatchCompleted(completed);
+                }
+            });
+        }
+    }
+
+    /**
+     * Emits the outcome of a finished {@link Task}, either complete at subscription time or completed on an
+     * executor.
+     */
+    private void dispatchCompleted(Task<T> task) {
+        if (task.isSuccessful()) {
+            onSuccess(task.getResult());
+        } else if (task.getException() != null) {
+            onFailure(task.getException());
+        }
+    }
+
+    @Override
+    public void onSuccess(T res) {
+        if (res != null) {
+            emitter.onSuccess(res);
+        } else {
+            emitter.onError(new RxFirebaseNullDataException("Observables can't emit null values"));
+        }
+    }
+
+    @Override
+    public void onFailure(@NonNull Exception e) {
+        if (!emitter.isDisposed())
+            emitter.onError(e);
+    }
+}
@@ -0,0 +1,146 @@
+package durdinapps.rxfirebase2;
+
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class RxFirebaseChildListTest {
+
+    private RxFirebaseChildList<String> childList;
+
+    @Before
+    public void setup() {
+        childList = new RxFirebaseChildList<>();
+    }
+
+    @Test
+    public void testAddedAfterPreviousChild() {
+        childList.apply(added("a", null));
+        childList.apply(added("c", "a"));
+        RxFirebaseChildList.Change<String> change = childList.apply(added("b", "a"));
+
+        assertEquals(-1, change.getOldIndex());
+        assertEquals(1, change.getNewIndex());
+        assertEquals(Arrays.asList("a", "b", "c"), change.getSnapshot());
+        assertEquals(2, childList.indexOf("c"));
+    }
+
+    @Test
+    public void testMovedChild() {
+        childList.apply(added("a", null));
+        childList.apply(added("b", "a"));
+        childList.apply(added("c", "b"));
+        RxFirebaseChildList.Change<String> change = childList.apply(
+            new RxFirebaseChildEvent<>("c", "c", null, RxFirebaseChildEvent.EventType.MOVED));
+
+        assertEquals(2, change.getOldIndex());
+        assertEquals(0, change.getNewIndex());
+        assertEquals(Arrays.asList("c", "a", "b"), change.getSnapshot());
+    }
+
+    @Test
+    public void testChangedAndRemovedChild() {
+        childList.apply(added("a", null));
+        childList.apply(added("b", "a"));
+        RxFirebaseChildList.Change<String> changed = childList.apply(
+            new RxFirebaseChildEvent<>("a", "a2", null, RxFirebaseChildEvent.EventType.CHANGED));
+        RxFirebaseChildList.Change<String> removed = childList.apply(
+            new RxFirebaseChildEvent<>("b", "b", RxFirebaseChildEvent.EventType.REMOVED));
+
+        assertEquals(0, changed.getNewIndex());
+        assertEquals(Arrays.asList("a2", "b"), changed.getSnapshot());
+        assertEquals(1, removed.getOldIndex());
+        assertEquals(-1, removed.getNewIndex());
+        assertEquals(Collections.singletonList("a2"), removed.getSnapshot());
+        assertEquals(-1, childList.indexOf("b"));
+    }
+
+    @Test
+    public void testMatchesListModel() {
+        Random random = new Random(42);
+        List<String> model = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            int action = model.isEmpty() ? 0 : random.nextInt(3);
+            if (action == 0) {
+                String key = "key" + i;
+                int index = random.nextInt(model.size() + 1);
+                childList.apply(added(key, index == 0 ? null : model.get(index - 1)));
+                model.add(index, key);
+            } else if (action == 1) {
+                String key = model.remove(random.nextInt(model.size()));
+                childList.apply(new RxFirebaseChildEvent<>(key, key, RxFirebaseChildEvent.EventType.REMOVED));
+            } else {
+                String key = model.remove(random.nextInt(model.size()));
+                int index = random.nextInt(model.size() + 1);
+                childList.apply(new RxFirebaseChildEvent<>(key, key, index == 0 ? null : model.get(index - 1),
+                    RxFirebaseChildEvent.EventType.MOVED));
+                model.add(index, key);
+            }
+        }
+        assertEquals(model, childList.snapshot());
+        for (int i = 0; i < model.size(); i++) {
+            assertEquals(i, childList.indexOf(model.get(i)));
+            assertEquals(model.get(i), childList.get(i));
+        }
+    }
+
+    @Test
+    public void testRepeatedInsertsAtSamePosition() {
+        childList.apply(added("first", null));
+        childList.apply(added("last", "first"));
+        List<String> expected = new ArrayList<>(Arrays.asList("first", "last"));
+        for (int i = 0; i < 200; i++) {
+            childList.apply(added("key" + i, "first"));
+            expected.add(1, "key" + i);
+        }
+        assertEquals(expected, childList.snapshot());
+    }
+
+    @Test
+    public void testManyInsertsAfterFixedKey() {
+        childList.apply(added("first", null));
+        childList.apply(added("last", "first"));
+        List<String> before = childList.snapshot();
+        int count = 20000;
+        for (int i = 0; i < count; i++) {
+            childList.apply(added("key" + i, "first"));
+        }
+
+        assertEquals(count + 2, childList.size());
+        assertEquals(0, childList.indexOf("first"));
+        assertEquals(count + 1, childList.indexOf("last"));
+        for (int i = 0; i < count; i++) {
+            assertEquals(count - i, childList.indexOf("key" + i));
+            assertEquals("key" + i, childList.get(count - i));
+        }
+        assertEquals(Arrays.asList("first", "last"), before);
+    }
+
+    @Test
+    public void testSnapshotsAreIndependentVersions() {
+        childList.apply(added("a", null));
+        List<String> first = childList.apply(added("b", "a")).getSnapshot();
+        List<String> second = childList.apply(
+            new RxFirebaseChildEvent<>("a", "a2", null, RxFirebaseChildEvent.EventType.CHANGED)).getSnapshot();
+        List<String> unchanged = childList.apply(
+            new RxFirebaseChildEvent<>("missing", "missing", RxFirebaseChildEvent.EventType.REMOVED)).getSnapshot();
+
+        assertEquals(Arrays.asList("a", "b"), first);
+        assertEquals(Arrays.asList("a2", "b"), second);
+        assertSame(second, unchanged);
+        assertSame(first.get(1), second.get(1));
+    }
+
+    private RxFirebaseChildEvent<String> added(String key, String previousChildName) {
+        return new RxFirebaseChildEvent<>(key, key, previousChildName, RxFirebaseChildEvent.EventType.ADDED);
+    }
+}
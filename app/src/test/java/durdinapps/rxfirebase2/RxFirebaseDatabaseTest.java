@@ -3,38 +3,65 @@ package durdinapps.rxfirebase2;
 
 import android.app.DownloadManager;
 
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
 import com.google.firebase.database.ChildEventListener;
 import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.MutableData;
 import com.google.firebase.database.Query;
+import com.google.firebase.database.Transaction;
 import com.google.firebase.database.ValueEventListener;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import durdinapps.rxfirebase2.exceptions.RxFirebaseDataException;
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Completable;
 import io.reactivex.functions.Function;
 import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.schedulers.TestScheduler;
 import io.reactivex.subscribers.TestSubscriber;
 
 import static durdinapps.rxfirebase2.RxTestUtil.ANY_KEY;
 import static durdinapps.rxfirebase2.RxTestUtil.PREVIOUS_CHILD_NAME;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -92,6 +119,11 @@ public class RxFirebaseDatabaseTest {
         when(databaseReference.updateChildren(updatedData)).thenReturn(voidTask);
     }
 
+    @After
+    public void tearDown() {
+        RxFirebasePlugins.reset();
+    }
+
     @Test
     public void testObserveSingleValue() {
         TestObserver<ChildData> testObserver = RxFirebaseDatabase
@@ -400,6 +432,633 @@ public class RxFirebaseDatabaseTest {
             .dispose();
     }
 
+    @Test
+    public void testObserveLatestValueEventDeliversNewest() {
+        TestSubscriber<DataSnapshot> testObserver = RxFirebaseDatabase
+            .observeLatestValueEvent(query)
+            .test(0);
+
+        ArgumentCaptor<ValueEventListener> argument = ArgumentCaptor.forClass(ValueEventListener.class);
+        verify(query).addValueEventListener(argument.capture());
+        argument.getValue().onDataChange(dataSnapshot);
+        argument.getValue().onDataChange(dataSnapshotTwo);
+
+        testObserver.assertNoValues();
+        testObserver.request(1);
+
+        testObserver.assertNoErrors()
+            .assertValueCount(1)
+            .assertValueSet(Collections.singletonList(dataSnapshotTwo))
+            .assertNotComplete()
+            .dispose();
+    }
+
+    @Test
+    public void testObserveValueEventMapsOnScheduler() throws Exception {
+        final CountDownLatch mapperRelease = new CountDownLatch(1);
+        final AtomicReference<Thread> mapperThread = new AtomicReference<>();
+        Function<DataSnapshot, ChildData> slowMapper = new Function<DataSnapshot, ChildData>() {
+            @Override
+            public ChildData apply(DataSnapshot dataSnapshot) throws Exception {
+                mapperThread.set(Thread.currentThread());
+                mapperRelease.await(5, TimeUnit.SECONDS);
+                return childData;
+            }
+        };
+
+        TestSubscriber<ChildData> testObserver = RxFirebaseDatabase
+            .observeValueEvent(query, slowMapper, BackpressureStrategy.BUFFER, Schedulers.single())
+            .test();
+
+        ArgumentCaptor<ValueEventListener> argument = ArgumentCaptor.forClass(ValueEventListener.class);
+        verify(query).addValueEventListener(argument.capture());
+        // The listener callback returns while the mapper is still blocked on the scheduler.
+        argument.getValue().onDataChange(dataSnapshot);
+        mapperRelease.countDown();
+
+        testObserver.awaitCount(1);
+        assertNotEquals(Thread.currentThread(), mapperThread.get());
+        testObserver.assertNoErrors()
+            .assertValueSet(Collections.singletonList(childData))
+            .assertNotComplete()
+            .dispose();
+    }
+
+    @Test
+    public void testObserveChildEventOnPluginMappingScheduler() {
+        RxFirebasePlugins.setMappingScheduler(Schedulers.single());
+
+        TestSubscriber<RxFirebaseChildEvent<ChildData>> testObserver = RxFirebaseDatabase
+            .observeChildEvent(databaseReference, ChildData.class)
+            .test();
+
+        ArgumentCaptor<ChildEventListener> argument = ArgumentCaptor.forClass(ChildEventListener.class);
+        verify(databaseReference).addChildEventListener(argument.capture());
+        argument.getValue().onChildAdded(dataSnapshot, PREVIOUS_CHILD_NAME);
+
+        testObserver.awaitCount(1)
+            .assertNoErrors()
+            .assertValueSet(Collections.singletonList(childEventAdded))
+            .dispose();
+    }
+
+    @Test
+    public void testObserveChildEventBatchesDeliversInitialLoadAsOneBatch() {
+        TestSubscriber<List<RxFirebaseChildEvent<ChildData>>> testObserver = RxFirebaseDatabase
+            .observeChildEventBatches(databaseReference, ChildData.class, 1, TimeUnit.HOURS, 2)
+            .test();
+
+        ArgumentCaptor<ChildEventListener> childArgument = ArgumentCaptor.forClass(ChildEventListener.class);
+        ArgumentCaptor<ValueEventListener> valueArgument = ArgumentCaptor.forClass(ValueEventListener.class);
+        verify(databaseReference).addChildEventListener(childArgument.capture());
+        verify(databaseReference).addListenerForSingleValueEvent(valueArgument.capture());
+
+        childArgument.getValue().onChildAdded(dataSnapshot, PREVIOUS_CHILD_NAME);
+        childArgument.getValue().onChildAdded(dataSnapshot, PREVIOUS_CHILD_NAME);
+        childArgument.getValue().onChildAdded(dataSnapshot, PREVIOUS_CHILD_NAME);
+        testObserver.assertNoValues();
+
+        valueArgument.getValue().onDataChange(dataSnapshot);
+        testObserver.assertValueCount(1)
+            .assertValueAt(0, Arrays.asList(childEventAdded, childEventAdded, childEventAdded));
+
+        childArgument.getValue().onChildChanged(dataSnapshot, PREVIOUS_CHILD_NAME);
+        testObserver.assertValueCount(1);
+        childArgument.getValue().onChildRemoved(dataSnapshot);
+
+        testObserver.assertNoErrors()
+            .assertValueCount(2)
+            .assertValueAt(1, Arrays.asList(childEventChanged, childEventRemoved))
+            .assertNotComplete()
+            .dispose();
+    }
+
+    @Test
+    public void testObserveChildEventBatchesAppliesStrategyToBatches() {
+        TestSubscriber<List<RxFirebaseChildEvent<ChildData>>> testObserver = RxFirebaseDatabase
+            .observeChildEventBatches(databaseReference, ChildData.class, 1, TimeUnit.HOURS, 1,
+                BackpressureStrategy.LATEST)
+            .test(0);
+
+        ArgumentCaptor<ChildEventListener> childArgument = ArgumentCaptor.forClass(ChildEventListener.class);
+        ArgumentCaptor<ValueEventListener> valueArgument = ArgumentCaptor.forClass(ValueEventListener.class);
+        verify(databaseReference).addChildEventListener(childArgument.capture());
+        verify(databaseReference).addListenerForSingleValueEvent(valueArgument.capture());
+
+        valueArgument.getValue().onDataChange(dataSnapshot);
+        childArgument.getValue().onChildChanged(dataSnapshot, PREVIOUS_CHILD_NAME);
+        childArgument.getValue().onChildRemoved(dataSnapshot);
+        testObserver.assertNoValues();
+
+        testObserver.request(1);
+        testObserver.assertNoErrors()
+            .assertValue(Collections.singletonList(childEventRemoved))
+            .dispose();
+    }
+
+    @Test
+    public void testObserveChildList() {
+        when(dataSnapshotTwo.getKey()).thenReturn("otherKey");
+
+        TestSubscriber<RxFirebaseChildList.Change<ChildData>> testObserver = RxFirebaseDatabase
+            .observeChildList(databaseReference, ChildData.class)
+            .test();
+
+        ArgumentCaptor<ChildEventListener> argument = ArgumentCaptor.forClass(ChildEventListener.class);
+        verify(databaseReference).addChildEventListener(argument.capture());
+        argument.getValue().onChildAdded(dataSnapshot, null);
+        argument.getValue().onChildAdded(dataSnapshotTwo, null);
+
+        testObserver.assertNoErrors()
+            .assertValueCount(2)
+            .assertNotComplete();
+        assertEquals(0, testObserver.values().get(1).getNewIndex());
+        assertEquals(Arrays.asList(childData, childData), testObserver.values().get(1).getSnapshot());
+        testObserver.dispose();
+    }
+
+    @Test
+    public void testGetPagesDropsOverlappingChild() {
+        DataSnapshot first = childSnapshot("a");
+        DataSnapshot second = childSnapshot("b");
+        DataSnapshot third = childSnapshot("c");
+        Query ordered = mock(Query.class);
+        Query fromCursor = mock(Query.class);
+        Query firstPage = pageQuery(first, second);
+        Query secondPage = pageQuery(second, third);
+        when(databaseReference.orderByKey()).thenReturn(ordered);
+        when(ordered.limitToFirst(2)).thenReturn(firstPage);
+        when(ordered.startAt("b")).thenReturn(fromCursor);
+        when(fromCursor.limitToFirst(3)).thenReturn(secondPage);
+
+        TestSubscriber<List<DataSnapshot>> testObserver = RxFirebaseDatabase
+            .getPages(databaseReference, 2)
+            .test(1);
+
+        testObserver.assertValueCount(1)
+            .assertValueAt(0, Arrays.asList(first, second))
+            .assertNotComplete();
+        verify(fromCursor, never()).limitToFirst(3);
+
+        testObserver.request(1);
+        testObserver.assertNoErrors()
+            .assertValueCount(2)
+            .assertValueAt(1, Collections.singletonList(third))
+            .assertComplete();
+    }
+
+    private DataSnapshot childSnapshot(String key) {
+        DataSnapshot child = mock(DataSnapshot.class);
+        when(child.getKey()).thenReturn(key);
+        return child;
+    }
+
+    private Query pageQuery(DataSnapshot... children) {
+        final DataSnapshot page = mock(DataSnapshot.class);
+        when(page.exists()).thenReturn(true);
+        when(page.getChildren()).thenReturn(Arrays.asList(children));
+        Query query = mock(Query.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                invocation.<ValueEventListener>getArgument(0).onDataChange(page);
+                return null;
+            }
+        }).when(query).addListenerForSingleValueEvent(any(ValueEventListener.class));
+        return query;
+    }
+
+    @Test
+    public void testWriteCoalescerMergesMultiPathUpdate() {
+        TestScheduler scheduler = new TestScheduler();
+        RxFirebaseDatabaseWriteCoalescer coalescer =
+            new RxFirebaseDatabaseWriteCoalescer(databaseReference, 100, TimeUnit.MILLISECONDS, scheduler);
+        DatabaseReference position = childReference(databaseReference, "position");
+        DatabaseReference presence = childReference(databaseReference, "presence");
+        Map<String, Object> presenceData = new HashMap<>();
+        presenceData.put("typing", true);
+        presenceData.put("online", true);
+        Map<String, Object> merged = new HashMap<>();
+        merged.put("/position", 5);
+        merged.put("/presence/typing", true);
+        merged.put("/presence/online", true);
+
+        TestObserver<Void> first = coalescer.setValue(position, 1).test();
+        TestObserver<Void> second = coalescer.updateChildren(presence, presenceData).test();
+        TestObserver<Void> third = coalescer.setValue(position, 5).test();
+        scheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+
+        ArgumentCaptor<DatabaseReference.CompletionListener> argument =
+            ArgumentCaptor.forClass(DatabaseReference.CompletionListener.class);
+        verify(databaseReference).updateChildren(eq(merged), argument.capture());
+        argument.getValue().onComplete(null, databaseReference);
+        first.assertComplete();
+        second.assertComplete();
+        third.assertComplete();
+    }
+
+    @Test
+    public void testWriteCoalescerSetsRootWrite() {
+        TestScheduler scheduler = new TestScheduler();
+        RxFirebaseDatabaseWriteCoalescer coalescer =
+            new RxFirebaseDatabaseWriteCoalescer(databaseReference, 100, TimeUnit.MILLISECONDS, scheduler);
+        DatabaseReference position = childReference(databaseReference, "position");
+        Map<String, Object> room = Collections.<String, Object>singletonMap("position", 2);
+        when(databaseReference.setValue(room)).thenReturn(voidTask);
+
+        coalescer.setValue(position, 1).test();
+        coalescer.setValue(databaseReference, room).test();
+        scheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+
+        verify(databaseReference).setValue(room);
+        verify(databaseReference, never()).updateChildren(any(Map.class), any(DatabaseReference.CompletionListener.class));
+    }
+
+    @Test
+    public void testWriteCoalescerFlushWaitsForWritesBeingSent() throws InterruptedException {
+        final TestScheduler scheduler = new TestScheduler();
+        final RxFirebaseDatabaseWriteCoalescer coalescer =
+            new RxFirebaseDatabaseWriteCoalescer(databaseReference, 100, TimeUnit.MILLISECONDS, scheduler);
+        final DatabaseReference position = childReference(databaseReference, "position");
+        final Map<String, Object> older = Collections.<String, Object>singletonMap("/position", 1);
+        final Map<String, Object> newer = Collections.<String, Object>singletonMap("/position", 2);
+        final CountDownLatch sending = new CountDownLatch(1);
+        final CountDownLatch sent = new CountDownLatch(1);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws InterruptedException {
+                sending.countDown();
+                sent.await(5, TimeUnit.SECONDS);
+                return null;
+            }
+        }).when(databaseReference).updateChildren(eq(older), any(DatabaseReference.CompletionListener.class));
+
+        coalescer.setValue(position, 1).test();
+        Thread window = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                scheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+            }
+        });
+        window.start();
+        assertTrue(sending.await(5, TimeUnit.SECONDS));
+        Thread flush = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                coalescer.setValue(position, 2).test();
+                coalescer.flush();
+            }
+        });
+        flush.start();
+        flush.join(200);
+        verify(databaseReference, never()).updateChildren(eq(newer), any(DatabaseReference.CompletionListener.class));
+        sent.countDown();
+        window.join(5000);
+        flush.join(5000);
+
+        InOrder inOrder = inOrder(databaseReference);
+        inOrder.verify(databaseReference).updateChildren(eq(older), any(DatabaseReference.CompletionListener.class));
+        inOrder.verify(databaseReference).updateChildren(eq(newer), any(DatabaseReference.CompletionListener.class));
+    }
+
+    @Test
+    public void testRunTransactionIncrementAboveIntRange() {
+        MutableData mutableData = mock(MutableData.class);
+        when(mutableData.getValue(Long.class)).thenReturn(Integer.MAX_VALUE + 1L);
+
+        TestObserver<DataSnapshot> testObserver = RxFirebaseDatabase.runTransaction(databaseReference, 10L).test();
+
+        ArgumentCaptor<Transaction.Handler> argument = ArgumentCaptor.forClass(Transaction.Handler.class);
+        verify(databaseReference).runTransaction(argument.capture(), eq(true));
+        argument.getValue().doTransaction(mutableData);
+        verify(mutableData).setValue(Integer.MAX_VALUE + 11L);
+        argument.getValue().onComplete(null, true, dataSnapshot);
+        testObserver.assertValue(dataSnapshot);
+    }
+
+    @Test
+    public void testRunTransactionRetriesContention() {
+        TestScheduler scheduler = new TestScheduler();
+        final MutableData mutableData = mock(MutableData.class);
+        RxFirebaseBackoffPolicy backoff =
+            RxFirebaseBackoffPolicy.exponential(3, 100, 1000, TimeUnit.MILLISECONDS, scheduler);
+        final List<Transaction.Handler> handlers = new ArrayList<>();
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                handlers.add(invocation.<Transaction.Handler>getArgument(0));
+                return null;
+            }
+        }).when(databaseReference).runTransaction(any(Transaction.Handler.class), eq(false));
+
+        TestObserver<RxFirebaseTransactionResult> testObserver = RxFirebaseDatabase.runTransaction(databaseReference,
+            new Function<MutableData, Transaction.Result>() {
+                @Override
+                public Transaction.Result apply(MutableData data) {
+                    return Transaction.success(data);
+                }
+            }, false, backoff).test();
+
+        handlers.get(0).doTransaction(mutableData);
+        handlers.get(0).doTransaction(mutableData);
+        handlers.get(0).onComplete(DatabaseError.fromCode(DatabaseError.MAX_RETRIES), false, null);
+        testObserver.assertNoErrors();
+        assertEquals(1, handlers.size());
+
+        scheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+        assertEquals(2, handlers.size());
+        handlers.get(1).doTransaction(mutableData);
+        handlers.get(1).onComplete(null, true, dataSnapshot);
+
+        testObserver.assertValueCount(1);
+        RxFirebaseTransactionResult result = testObserver.values().get(0);
+        assertEquals(true, result.isCommitted());
+        assertEquals(dataSnapshot, result.getSnapshot());
+        assertEquals(3, result.getAttempts());
+    }
+
+    @Test
+    public void testRunTransactionDoesNotRetryOtherErrors() {
+        RxFirebaseBackoffPolicy backoff =
+            RxFirebaseBackoffPolicy.exponential(3, 100, 1000, TimeUnit.MILLISECONDS, new TestScheduler());
+
+        TestObserver<RxFirebaseTransactionResult> testObserver = RxFirebaseDatabase.runTransaction(databaseReference,
+            new Function<MutableData, Transaction.Result>() {
+                @Override
+                public Transaction.Result apply(MutableData data) {
+                    return Transaction.abort();
+                }
+            }, true, backoff).test();
+
+        ArgumentCaptor<Transaction.Handler> argument = ArgumentCaptor.forClass(Transaction.Handler.class);
+        verify(databaseReference).runTransaction(argument.capture(), eq(true));
+        argument.getValue().onComplete(DatabaseError.fromCode(DatabaseError.PERMISSION_DENIED), false, null);
+        testObserver.assertError(RxFirebaseDataException.class);
+    }
+
+    @Test
+    public void testShardedCounterIncrementsShardOfClient() {
+        RxFirebaseShardedCounter counter = new RxFirebaseShardedCounter(databaseReference, 4);
+        String clientId = "user";
+        String shardKey = String.valueOf((clientId.hashCode() & Integer.MAX_VALUE) % 4);
+        when(databaseReference.child(shardKey)).thenReturn(databaseReferenceTwo);
+        MutableData mutableData = mock(MutableData.class);
+        when(mutableData.getValue(Long.class)).thenReturn(5L);
+
+        TestObserver<RxFirebaseTransactionResult> testObserver = counter.increment(2, clientId).test();
+
+        ArgumentCaptor<Transaction.Handler> argument = ArgumentCaptor.forClass(Transaction.Handler.class);
+        verify(databaseReferenceTwo).runTransaction(argument.capture(), eq(true));
+        argument.getValue().doTransaction(mutableData);
+        verify(mutableData).setValue(7L);
+        argument.getValue().onComplete(null, true, dataSnapshotTwo);
+        testObserver.assertValueCount(1);
+    }
+
+    @Test
+    public void testShardedCounterObservesSum() {
+        DataSnapshot firstShard = mock(DataSnapshot.class);
+        DataSnapshot secondShard = mock(DataSnapshot.class);
+        when(firstShard.getValue(Long.class)).thenReturn(3L);
+        when(secondShard.getValue(Long.class)).thenReturn(Integer.MAX_VALUE + 1L);
+        List<DataSnapshot> shards = Arrays.asList(firstShard, secondShard);
+        when(dataSnapshot.getChildren()).thenReturn(shards);
+
+        TestSubscriber<Long> testObserver = new RxFirebaseShardedCounter(databaseReference, 2).observeCount().test();
+
+        ArgumentCaptor<ValueEventListener> argument = ArgumentCaptor.forClass(ValueEventListener.class);
+        verify(databaseReference).addValueEventListener(argument.capture());
+        argument.getValue().onDataChange(dataSnapshot);
+        argument.getValue().onDataChange(dataSnapshot);
+        testObserver.assertValue(Integer.MAX_VALUE + 4L);
+    }
+
+    @Test
+    public void testIncrementAccumulatorFlushesOnThreshold() {
+        RxFirebaseDatabaseIncrementAccumulator accumulator = new RxFirebaseDatabaseIncrementAccumulator(
+            databaseReference, 1, TimeUnit.MINUTES, 3, new TestScheduler());
+        DatabaseReference likes = childReference(databaseReference, "likes");
+        DatabaseReference views = childReference(databaseReference, "views");
+
+        accumulator.increment(likes, 1);
+        accumulator.increment(views, 1);
+        verify(databaseReference, never()).updateChildren(any(Map.class), any(DatabaseReference.CompletionListener.class));
+        accumulator.increment(likes, 1);
+
+        ArgumentCaptor<Map> updates = ArgumentCaptor.forClass(Map.class);
+        verify(databaseReference).updateChildren(updates.capture(), any(DatabaseReference.CompletionListener.class));
+        assertEquals(new HashSet<>(Arrays.asList("/likes", "/views")), updates.getValue().keySet());
+    }
+
+    @Test
+    public void testIncrementAccumulatorKeepsSumsOfFailedWrite() {
+        TestScheduler scheduler = new TestScheduler();
+        RxFirebaseDatabaseIncrementAccumulator accumulator = new RxFirebaseDatabaseIncrementAccumulator(
+            databaseReference, 100, TimeUnit.MILLISECONDS, 10, scheduler);
+        DatabaseReference likes = childReference(databaseReference, "likes");
+        final List<DatabaseReference.CompletionListener> listeners = new ArrayList<>();
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                listeners.add(invocation.<DatabaseReference.CompletionListener>getArgument(1));
+                return null;
+            }
+        }).when(databaseReference).updateChildren(any(Map.class), any(DatabaseReference.CompletionListener.class));
+
+        accumulator.increment(likes, 2);
+        scheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+        assertEquals(1, listeners.size());
+        listeners.get(0).onComplete(DatabaseError.fromCode(DatabaseError.DISCONNECTED), databaseReference);
+
+        TestObserver<Void> testObserver = accumulator.flush().test();
+        assertEquals(2, listeners.size());
+        listeners.get(1).onComplete(null, databaseReference);
+        testObserver.assertComplete();
+        accumulator.flush().test().assertComplete();
+        assertEquals(2, listeners.size());
+    }
+
+    @Test
+    public void testIncrementAccumulatorRejectsReferenceOutsideRoot() {
+        TestScheduler scheduler = new TestScheduler();
+        RxFirebaseDatabaseIncrementAccumulator accumulator = new RxFirebaseDatabaseIncrementAccumulator(
+            databaseReference, 100, TimeUnit.MILLISECONDS, 10, scheduler);
+        DatabaseReference likes = childReference(databaseReference, "likes");
+        DatabaseReference outside = childReference(databaseReferenceTwo, "likes");
+
+        accumulator.increment(likes, 2);
+        try {
+            accumulator.increment(outside, 1);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+        accumulator.flush().test();
+
+        ArgumentCaptor<Map> updates = ArgumentCaptor.forClass(Map.class);
+        verify(databaseReference).updateChildren(updates.capture(), any(DatabaseReference.CompletionListener.class));
+        assertEquals(Collections.singleton("/likes"), updates.getValue().keySet());
+    }
+
+    @Test
+    public void testIncrementAccumulatorKeepsSumsOfWriteThrowingWhileBuilt() {
+        final List<Map<String, Long>> written = new ArrayList<>();
+        IncrementAccumulator<String> accumulator =
+            new IncrementAccumulator<String>(100, TimeUnit.MILLISECONDS, 10, new TestScheduler()) {
+                @NonNull
+                @Override
+                Completable write(@NonNull Map<String, Long> deltas) {
+                    written.add(deltas);
+                    if (written.size() == 1) throw new IllegalArgumentException("invalid path");
+                    return Completable.complete();
+                }
+            };
+
+        accumulator.add("likes", 2);
+        accumulator.flush().test().assertError(IllegalArgumentException.class);
+        accumulator.flush().test().assertComplete();
+
+        assertEquals(2, written.size());
+        assertEquals(Collections.singletonMap("likes", 2L), written.get(1));
+    }
+
+    @Test
+    public void testCacheThenServerEmitsChangedValue() {
+        Task<DataSnapshot> serverTask = mock(Task.class);
+        when(query.get()).thenReturn(serverTask);
+        when(dataSnapshot.getValue()).thenReturn("cached");
+        when(dataSnapshotTwo.getValue()).thenReturn("fetched");
+
+        TestSubscriber<RxFirebaseSnapshot> testObserver = RxFirebaseDatabase
+            .getValueFromCacheThenServer(query, 5, TimeUnit.SECONDS, new TestScheduler()).test();
+
+        ArgumentCaptor<ValueEventListener> argument = ArgumentCaptor.forClass(ValueEventListener.class);
+        verify(query).addListenerForSingleValueEvent(argument.capture());
+        argument.getValue().onDataChange(dataSnapshot);
+        ArgumentCaptor<OnSuccessListener> server = ArgumentCaptor.forClass(OnSuccessListener.class);
+        verify(serverTask).addOnSuccessListener(server.capture());
+        server.getValue().onSuccess(dataSnapshotTwo);
+
+        testObserver.assertValueCount(2).assertComplete();
+        assertEquals(true, testObserver.values().get(0).isLocal());
+        assertEquals(dataSnapshotTwo, testObserver.values().get(1).getSnapshot());
+        assertEquals(false, testObserver.values().get(1).isLocal());
+    }
+
+    @Test
+    public void testCacheThenServerWhenServerAnswersFirst() {
+        Task<DataSnapshot> serverTask = mock(Task.class);
+        when(query.get()).thenReturn(serverTask);
+
+        TestSubscriber<RxFirebaseSnapshot> testObserver = RxFirebaseDatabase
+            .getValueFromCacheThenServer(query, 5, TimeUnit.SECONDS, new TestScheduler()).test();
+
+        ArgumentCaptor<ValueEventListener> argument = ArgumentCaptor.forClass(ValueEventListener.class);
+        verify(query).addListenerForSingleValueEvent(argument.capture());
+        ArgumentCaptor<OnSuccessListener> server = ArgumentCaptor.forClass(OnSuccessListener.class);
+        verify(serverTask).addOnSuccessListener(server.capture());
+        server.getValue().onSuccess(dataSnapshotTwo);
+        argument.getValue().onDataChange(dataSnapshot);
+
+        testObserver.assertValueCount(1).assertComplete();
+        assertEquals(dataSnapshotTwo, testObserver.values().get(0).getSnapshot());
+        assertEquals(false, testObserver.values().get(0).isLocal());
+        verify(query).removeEventListener(argument.getValue());
+    }
+
+    @Test
+    public void testCacheThenServerFallsBackOnTimeout() {
+        TestScheduler scheduler = new TestScheduler();
+        Task<DataSnapshot> serverTask = mock(Task.class);
+        when(query.get()).thenReturn(serverTask);
+
+        TestSubscriber<RxFirebaseSnapshot> testObserver = RxFirebaseDatabase
+            .getValueFromCacheThenServer(query, 5, TimeUnit.SECONDS, scheduler).test();
+
+        ArgumentCaptor<ValueEventListener> argument = ArgumentCaptor.forClass(ValueEventListener.class);
+        verify(query).addListenerForSingleValueEvent(argument.capture());
+        argument.getValue().onDataChange(dataSnapshot);
+        testObserver.assertValueCount(1).assertNotComplete();
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS);
+        testObserver.assertValueCount(1).assertComplete();
+    }
+
+    @Test
+    public void testCacheThenServerFallsBackOnServerErrorBeforeLocalValue() {
+        Task<DataSnapshot> serverTask = mock(Task.class);
+        when(query.get()).thenReturn(serverTask);
+
+        TestSubscriber<RxFirebaseSnapshot> testObserver = RxFirebaseDatabase
+            .getValueFromCacheThenServer(query, 5, TimeUnit.SECONDS, new TestScheduler()).test();
+
+        InOrder inOrder = inOrder(query);
+        ArgumentCaptor<ValueEventListener> argument = ArgumentCaptor.forClass(ValueEventListener.class);
+        inOrder.verify(query).addListenerForSingleValueEvent(argument.capture());
+        inOrder.verify(query).get();
+        ArgumentCaptor<OnFailureListener> server = ArgumentCaptor.forClass(OnFailureListener.class);
+        verify(serverTask).addOnFailureListener(server.capture());
+        server.getValue().onFailure(new IllegalStateException("offline"));
+        testObserver.assertNoValues().assertNoErrors().assertNotComplete();
+        argument.getValue().onDataChange(dataSnapshot);
+
+        testObserver.assertValueCount(1).assertNoErrors().assertComplete();
+        assertEquals(true, testObserver.values().get(0).isLocal());
+    }
+
+    @Test
+    public void testCacheThenServerFailsWithoutLocalValueByTimeout() {
+        TestScheduler scheduler = new TestScheduler();
+        Task<DataSnapshot> serverTask = mock(Task.class);
+        when(query.get()).thenReturn(serverTask);
+
+        TestSubscriber<RxFirebaseSnapshot> testObserver = RxFirebaseDatabase
+            .getValueFromCacheThenServer(query, 5, TimeUnit.SECONDS, scheduler).test();
+
+        ArgumentCaptor<OnFailureListener> server = ArgumentCaptor.forClass(OnFailureListener.class);
+        verify(serverTask).addOnFailureListener(server.capture());
+        IllegalStateException offline = new IllegalStateException("offline");
+        server.getValue().onFailure(offline);
+        testObserver.assertNoErrors();
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS);
+
+        testObserver.assertNoValues().assertError(offline);
+        verify(query).removeEventListener(any(ValueEventListener.class));
+    }
+
+    @Test
+    public void testCacheThenServerFailsOnTimeoutWithoutLocalValue() {
+        TestScheduler scheduler = new TestScheduler();
+        Task<DataSnapshot> serverTask = mock(Task.class);
+        when(query.get()).thenReturn(serverTask);
+
+        TestSubscriber<RxFirebaseSnapshot> testObserver = RxFirebaseDatabase
+            .getValueFromCacheThenServer(query, 5, TimeUnit.SECONDS, scheduler).test();
+
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS);
+
+        testObserver.assertNoValues().assertError(TimeoutException.class);
+    }
+
+    @Test
+    public void testKeepSyncedIsShared() {
+        TestObserver<Void> first = RxFirebaseDatabase.keepSynced(query).test();
+        TestObserver<Void> second = RxFirebaseDatabase.keepSynced(query).test();
+        RxFirebaseDatabase.prefetch(query).test().assertComplete();
+        verify(query).keepSynced(true);
+        verify(query, never()).get();
+
+        first.dispose();
+        verify(query, never()).keepSynced(false);
+        second.dispose();
+        verify(query).keepSynced(false);
+    }
+
+    private DatabaseReference childReference(DatabaseReference parent, String key) {
+        DatabaseReference child = mock(DatabaseReference.class);
+        when(child.getParent()).thenReturn(parent);
+        when(child.getKey()).thenReturn(key);
+        return child;
+    }
+
     class ChildData {
         int id;
         String str;
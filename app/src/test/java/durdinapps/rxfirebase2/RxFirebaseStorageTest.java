@@ -3,6 +3,7 @@ package durdinapps.rxfirebase2;
 
 import android.net.Uri;
 
+import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
 import com.google.firebase.storage.FileDownloadTask;
 import com.google.firebase.storage.StorageMetadata;
@@ -26,6 +27,8 @@ import static durdinapps.rxfirebase2.RxTestUtil.setupTask;
 import static durdinapps.rxfirebase2.RxTestUtil.testOnCompleteListener;
 import static durdinapps.rxfirebase2.RxTestUtil.testOnFailureListener;
 import static durdinapps.rxfirebase2.RxTestUtil.testOnSuccessListener;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -152,6 +155,25 @@ public class RxFirebaseStorageTest {
                 .dispose();
     }
 
+    @Test
+    public void getDownloadUrlFromCompletedTask() {
+        when(mockUriTask.isComplete()).thenReturn(true);
+        when(mockUriTask.isSuccessful()).thenReturn(true);
+        when(mockUriTask.getResult()).thenReturn(uri);
+
+        TestObserver<Uri> storageTestObserver =
+                RxFirebaseStorage.getDownloadUrl(mockStorageRef)
+                        .test();
+
+        verify(mockUriTask, never()).addOnSuccessListener(any(OnSuccessListener.class));
+
+        storageTestObserver.assertNoErrors()
+                .assertValueCount(1)
+                .assertValueSet(Collections.singletonList(uri))
+                .assertComplete()
+                .dispose();
+    }
+
     @Test
     public void getDownloadUrl() {
         TestObserver<Uri> storageTestObserver =
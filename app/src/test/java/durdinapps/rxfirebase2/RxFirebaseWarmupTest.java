@@ -0,0 +1,169 @@
+package durdinapps.rxfirebase2;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.EventListener;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.MetadataChanges;
+
+import durdinapps.rxfirebase2.exceptions.RxFirebaseDataException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.schedulers.TestScheduler;
+import io.reactivex.subscribers.TestSubscriber;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RxFirebaseWarmupTest {
+
+    @Mock
+    private Query query;
+    @Mock
+    private DatabaseReference databaseReference;
+    @Mock
+    private DataSnapshot dataSnapshot;
+    @Mock
+    private DatabaseError databaseError;
+    @Mock
+    private DocumentReference first;
+    @Mock
+    private DocumentReference second;
+    @Mock
+    private DocumentSnapshot documentSnapshot;
+    @Mock
+    private ListenerRegistration firstRegistration;
+    @Mock
+    private ListenerRegistration secondRegistration;
+
+    private ArgumentCaptor<ValueEventListener> valueListener = ArgumentCaptor.forClass(ValueEventListener.class);
+    private ArgumentCaptor<EventListener> firstListener = ArgumentCaptor.forClass(EventListener.class);
+    private ArgumentCaptor<EventListener> secondListener = ArgumentCaptor.forClass(EventListener.class);
+    private TestScheduler scheduler = new TestScheduler();
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        when(query.getRef()).thenReturn(databaseReference);
+        when(databaseReference.toString()).thenReturn("https://app.firebaseio.com/posts");
+        when(first.getPath()).thenReturn("items/first");
+        when(second.getPath()).thenReturn("items/second");
+        when(first.addSnapshotListener(eq(MetadataChanges.EXCLUDE), firstListener.capture()))
+            .thenReturn(firstRegistration);
+        when(second.addSnapshotListener(eq(MetadataChanges.EXCLUDE), secondListener.capture()))
+            .thenReturn(secondRegistration);
+    }
+
+    @Test
+    public void testWarmupReportsTimeToFirstSnapshot() {
+        TestSubscriber<RxFirebaseWarmup.Result> testSubscriber = RxFirebaseWarmup.getInstance()
+            .query(query)
+            .document(first)
+            .scheduler(scheduler)
+            .start()
+            .test();
+
+        verify(query).addValueEventListener(valueListener.capture());
+        scheduler.advanceTimeBy(120, TimeUnit.MILLISECONDS);
+        valueListener.getValue().onDataChange(dataSnapshot);
+        scheduler.advanceTimeBy(80, TimeUnit.MILLISECONDS);
+        firstListener.getValue().onEvent(documentSnapshot, null);
+
+        testSubscriber.assertValueCount(2).assertComplete();
+        RxFirebaseWarmup.Result database = testSubscriber.values().get(0);
+        RxFirebaseWarmup.Result document = testSubscriber.values().get(1);
+        assertEquals("https://app.firebaseio.com/posts", database.getPath());
+        assertEquals(120, database.getTimeToFirstSnapshot(TimeUnit.MILLISECONDS));
+        assertEquals("items/first", document.getPath());
+        assertEquals(200, document.getTimeToFirstSnapshot(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testListenersAreHeldAfterFirstSnapshot() {
+        RxFirebaseWarmup.getInstance()
+            .query(query)
+            .document(first)
+            .hold(5, TimeUnit.SECONDS)
+            .scheduler(scheduler)
+            .start()
+            .test();
+
+        verify(query).addValueEventListener(valueListener.capture());
+        valueListener.getValue().onDataChange(dataSnapshot);
+        firstListener.getValue().onEvent(documentSnapshot, null);
+        scheduler.advanceTimeBy(4, TimeUnit.SECONDS);
+
+        verify(query, never()).removeEventListener(any(ValueEventListener.class));
+        verify(firstRegistration, never()).remove();
+
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+
+        verify(query).removeEventListener(valueListener.getValue());
+        verify(firstRegistration).remove();
+    }
+
+    @Test
+    public void testRelease() {
+        RxFirebaseWarmup warmup = RxFirebaseWarmup.getInstance()
+            .document(first)
+            .scheduler(scheduler);
+        warmup.start().test();
+        firstListener.getValue().onEvent(documentSnapshot, null);
+
+        warmup.release();
+
+        verify(firstRegistration).remove();
+    }
+
+    @Test
+    public void testMaxConcurrencyLimitsPendingReads() {
+        TestSubscriber<RxFirebaseWarmup.Result> testSubscriber = RxFirebaseWarmup.getInstance()
+            .document(first)
+            .document(second)
+            .maxConcurrency(1)
+            .scheduler(scheduler)
+            .start()
+            .test();
+
+        verify(second, never()).addSnapshotListener(eq(MetadataChanges.EXCLUDE), any(EventListener.class));
+
+        firstListener.getValue().onEvent(documentSnapshot, null);
+        secondListener.getValue().onEvent(documentSnapshot, null);
+
+        testSubscriber.assertValueCount(2).assertComplete();
+        verify(firstRegistration, never()).remove();
+    }
+
+    @Test
+    public void testFailedReadDoesNotStopTheOthers() {
+        TestSubscriber<RxFirebaseWarmup.Result> testSubscriber = RxFirebaseWarmup.getInstance()
+            .query(query)
+            .document(first)
+            .scheduler(scheduler)
+            .start()
+            .test();
+
+        verify(query).addValueEventListener(valueListener.capture());
+        valueListener.getValue().onCancelled(databaseError);
+        firstListener.getValue().onEvent(documentSnapshot, null);
+
+        testSubscriber.assertValueCount(1).assertError(RxFirebaseDataException.class);
+        assertEquals("items/first", testSubscriber.values().get(0).getPath());
+    }
+}
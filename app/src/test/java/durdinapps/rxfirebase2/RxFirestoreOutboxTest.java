@@ -0,0 +1,255 @@
+package durdinapps.rxfirebase2;
+
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.EventListener;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.MetadataChanges;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.SnapshotMetadata;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.schedulers.TestScheduler;
+import io.reactivex.subscribers.TestSubscriber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RxFirestoreOutboxTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Mock
+    private FirebaseFirestore firestore;
+    @Mock
+    private DocumentReference first;
+    @Mock
+    private DocumentReference second;
+    @Mock
+    private Task<Void> completedTask;
+    @Mock
+    private Task<Void> runningTask;
+    @Mock
+    private ListenerRegistration registration;
+
+    private File file;
+    private Map<String, Object> data = new HashMap<>();
+
+    @Before
+    public void setup() throws IOException {
+        MockitoAnnotations.initMocks(this);
+        file = new File(folder.getRoot(), "outbox");
+        data.put("name", "first");
+        data.put("tags", Arrays.<Object>asList("a", 1L, true));
+        data.put("nested", Collections.<String, Object>singletonMap("score", 1.5));
+
+        when(completedTask.isComplete()).thenReturn(true);
+        when(completedTask.isSuccessful()).thenReturn(true);
+        setupDocument(first, "items/first");
+        setupDocument(second, "items/second");
+    }
+
+    @Test
+    public void testWriteCompletesWhenAcknowledged() {
+        when(first.set(data)).thenReturn(completedTask);
+        RxFirestoreOutbox outbox = new RxFirestoreOutbox(firestore, file, 2, Schedulers.trampoline());
+        TestSubscriber<Integer> depth = outbox.observeQueueDepth().test();
+
+        TestObserver<Void> testObserver = outbox.setDocument(first, data).test();
+
+        testObserver.assertNotComplete();
+        acknowledge(first, true);
+        testObserver.assertNotComplete();
+        acknowledge(first, false);
+        testObserver.assertComplete();
+        depth.assertValues(0, 1, 0);
+        assertEquals(0, file.length());
+    }
+
+    @Test
+    public void testPendingWritesAreSentAfterRestart() {
+        when(first.set(data)).thenReturn(runningTask);
+        new RxFirestoreOutbox(firestore, file, 2, Schedulers.trampoline()).setDocument(first, data).test();
+
+        RxFirestoreOutbox restarted = new RxFirestoreOutbox(firestore, file, 2, Schedulers.trampoline());
+        TestSubscriber<Integer> depth = restarted.observeQueueDepth().test();
+        restarted.start().test().assertComplete();
+
+        verify(first, times(2)).set(data);
+        depth.assertValues(0, 1);
+    }
+
+    @Test
+    public void testConcurrencyIsBounded() {
+        when(first.delete()).thenReturn(completedTask);
+        when(second.update(data)).thenReturn(completedTask);
+        RxFirestoreOutbox outbox = new RxFirestoreOutbox(firestore, file, 1, Schedulers.trampoline());
+
+        TestObserver<Void> firstObserver = outbox.deleteDocument(first).test();
+        TestObserver<Void> secondObserver = outbox.updateDocument(second, data).test();
+        verify(second, never()).update(data);
+
+        acknowledge(first, false);
+        firstObserver.assertComplete();
+        verify(second).update(data);
+        acknowledge(second, false);
+        secondObserver.assertComplete();
+    }
+
+    @Test
+    public void testRejectedWriteIsReported() {
+        Exception rejected = new Exception("PERMISSION_DENIED");
+        Task<Void> failedTask = mock(Task.class);
+        when(failedTask.isComplete()).thenReturn(true);
+        when(failedTask.getException()).thenReturn(rejected);
+        when(first.set(data)).thenReturn(failedTask);
+        RxFirestoreOutbox outbox = new RxFirestoreOutbox(firestore, file, 1, Schedulers.trampoline());
+        TestSubscriber<Throwable> errors = outbox.observeErrors().test();
+
+        outbox.setDocument(first, data).test().assertError(rejected);
+
+        errors.assertValue(rejected);
+        outbox.observeQueueDepth().test().assertValue(0);
+    }
+
+    @Test
+    public void testUnsupportedValueIsNotQueued() {
+        Map<String, Object> unsupported = Collections.<String, Object>singletonMap("value", new Object());
+        RxFirestoreOutbox outbox = new RxFirestoreOutbox(firestore, file, 1, Schedulers.trampoline());
+
+        outbox.setDocument(first, unsupported).test().assertError(IllegalArgumentException.class);
+
+        outbox.observeQueueDepth().test().assertValue(0);
+        verify(first, never()).set(any());
+    }
+
+    @Test
+    public void testCutRecordIsDropped() throws IOException {
+        when(first.set(data)).thenReturn(runningTask);
+        when(second.set(data, SetOptions.merge())).thenReturn(runningTask);
+        RxFirestoreOutbox outbox = new RxFirestoreOutbox(firestore, file, 2, Schedulers.trampoline());
+        outbox.setDocument(first, data).test();
+        outbox.setDocument(second, data, true).test();
+        RandomAccessFile cut = new RandomAccessFile(file, "rw");
+        cut.setLength(file.length() - 3);
+        cut.close();
+
+        new RxFirestoreOutbox(firestore, file, 2, Schedulers.trampoline()).start().test().assertComplete();
+
+        verify(first, times(2)).set(data);
+        verify(second, times(1)).set(data, SetOptions.merge());
+    }
+
+    @Test
+    public void testCorruptRecordIsReportedAndLaterWritesAreKept() throws IOException {
+        when(first.set(data)).thenReturn(runningTask);
+        when(second.set(data)).thenReturn(runningTask);
+        RxFirestoreOutbox outbox = new RxFirestoreOutbox(firestore, file, 2, Schedulers.trampoline());
+        outbox.setDocument(first, data).test();
+        outbox.setDocument(second, data).test();
+        RandomAccessFile corrupt = new RandomAccessFile(file, "rw");
+        corrupt.seek(12);
+        int value = corrupt.read();
+        corrupt.seek(12);
+        corrupt.write(value ^ 0xFF);
+        corrupt.close();
+
+        RxFirestoreOutbox restarted = new RxFirestoreOutbox(firestore, file, 2, Schedulers.trampoline());
+        TestSubscriber<Throwable> errors = restarted.observeErrors().test();
+        restarted.start().test().assertComplete();
+
+        errors.assertValueCount(1);
+        assertTrue(errors.values().get(0) instanceof IOException);
+        verify(first, times(1)).set(data);
+        verify(second, times(2)).set(data);
+        assertTrue(new File(file.getPath() + ".corrupt").exists());
+    }
+
+    @Test
+    public void testPartialRecordIsTruncatedBeforeNextAppend() throws IOException {
+        when(first.set(data)).thenReturn(runningTask);
+        when(second.set(data)).thenReturn(runningTask);
+        RxFirestoreOutbox outbox = new RxFirestoreOutbox(firestore, file, 2, Schedulers.trampoline());
+        outbox.setDocument(first, data).test();
+        RandomAccessFile partial = new RandomAccessFile(file, "rw");
+        partial.seek(file.length());
+        partial.write(new byte[]{0, 0, 1, 0, 7});
+        partial.close();
+        outbox.setDocument(second, data).test();
+
+        RxFirestoreOutbox restarted = new RxFirestoreOutbox(firestore, file, 2, Schedulers.trampoline());
+        TestSubscriber<Throwable> errors = restarted.observeErrors().test();
+        restarted.start().test().assertComplete();
+
+        errors.assertNoValues();
+        verify(first, times(2)).set(data);
+        verify(second, times(2)).set(data);
+    }
+
+    @Test
+    public void testDrainRateCountsOnlyAcknowledgedWrites() {
+        Task<Void> failedTask = mock(Task.class);
+        when(failedTask.isComplete()).thenReturn(true);
+        when(failedTask.getException()).thenReturn(new Exception("PERMISSION_DENIED"));
+        when(first.set(data)).thenReturn(failedTask);
+        when(second.set(data)).thenReturn(completedTask);
+        TestScheduler scheduler = new TestScheduler();
+        RxFirestoreOutbox outbox = new RxFirestoreOutbox(firestore, file, 2, Schedulers.trampoline());
+        TestSubscriber<Double> rate = outbox.observeDrainRate(1, TimeUnit.SECONDS, scheduler).test();
+
+        outbox.setDocument(first, data).test().assertError(Exception.class);
+        outbox.setDocument(second, data).test();
+        acknowledge(second, false);
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+
+        rate.assertValue(1.0);
+    }
+
+    private void setupDocument(DocumentReference document, String path) {
+        when(document.getPath()).thenReturn(path);
+        when(firestore.document(path)).thenReturn(document);
+        when(document.addSnapshotListener(eq(MetadataChanges.INCLUDE), any(EventListener.class)))
+            .thenReturn(registration);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void acknowledge(DocumentReference document, boolean hasPendingWrites) {
+        ArgumentCaptor<EventListener> listener = ArgumentCaptor.forClass(EventListener.class);
+        verify(document, times(1)).addSnapshotListener(eq(MetadataChanges.INCLUDE), listener.capture());
+        SnapshotMetadata metadata = mock(SnapshotMetadata.class);
+        when(metadata.hasPendingWrites()).thenReturn(hasPendingWrites);
+        DocumentSnapshot snapshot = mock(DocumentSnapshot.class);
+        when(snapshot.getMetadata()).thenReturn(metadata);
+        List<EventListener> listeners = listener.getAllValues();
+        listeners.get(listeners.size() - 1).onEvent(snapshot, null);
+    }
+}
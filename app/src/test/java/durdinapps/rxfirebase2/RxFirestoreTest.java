@@ -1,33 +1,70 @@
 package durdinapps.rxfirebase2;
 
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
 import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentChange;
 import com.google.firebase.firestore.DocumentReference;
 import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.EventListener;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
 import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.MetadataChanges;
 import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QueryDocumentSnapshot;
 import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.SnapshotMetadata;
+import com.google.firebase.firestore.Source;
+import com.google.firebase.firestore.Transaction;
+import com.google.firebase.firestore.WriteBatch;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
+import io.reactivex.functions.Function;
 import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.schedulers.TestScheduler;
+import io.reactivex.subscribers.TestSubscriber;
 
 import static durdinapps.rxfirebase2.RxTestUtil.eventSnapshotListener;
 import static durdinapps.rxfirebase2.RxTestUtil.setupOfflineTask;
 import static durdinapps.rxfirebase2.RxTestUtil.setupTask;
 import static durdinapps.rxfirebase2.RxTestUtil.testOnCompleteListener;
 import static durdinapps.rxfirebase2.RxTestUtil.testOnSuccessListener;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -83,6 +120,9 @@ public class RxFirestoreTest {
     @Mock
     private ListenerRegistration registration;
 
+    @Mock
+    private Executor executor;
+
 
     private HashMap<String, Object> updateMap = new HashMap<>();
     private ChildDocData setData = new ChildDocData();
@@ -124,6 +164,11 @@ public class RxFirestoreTest {
         when(emptyQuerySnapshot.isEmpty()).thenReturn(true);
     }
 
+    @After
+    public void tearDown() {
+        RxFirebasePlugins.reset();
+    }
+
     @Test
     public void testGetDocument() {
         TestObserver<DocumentSnapshot> testObserver = RxFirestore
@@ -141,6 +186,61 @@ public class RxFirestoreTest {
             .assertComplete();
     }
 
+    @Test
+    public void testGetDocumentFromCompletedTask() {
+        when(documentSnapshotTask.isComplete()).thenReturn(true);
+        when(documentSnapshotTask.isSuccessful()).thenReturn(true);
+        when(documentSnapshotTask.getResult()).thenReturn(documentSnapshot);
+
+        TestObserver<DocumentSnapshot> testObserver = RxFirestore
+            .getDocument(documentReference)
+            .test();
+
+        verify(documentSnapshotTask, never()).addOnSuccessListener(any(OnSuccessListener.class));
+
+        testObserver
+            .assertNoErrors()
+            .assertValueCount(1)
+            .assertValueSet(Collections.singletonList(documentSnapshot))
+            .assertComplete();
+    }
+
+    @Test
+    public void testGetDocumentOnExecutor() {
+        ArgumentCaptor<OnCompleteListener> completeListener = ArgumentCaptor.forClass(OnCompleteListener.class);
+        when(documentSnapshotTask.addOnCompleteListener(eq(executor), completeListener.capture()))
+            .thenReturn(documentSnapshotTask);
+        when(documentSnapshotTask.isSuccessful()).thenReturn(true);
+        when(documentSnapshotTask.getResult()).thenReturn(documentSnapshot);
+
+        TestObserver<DocumentSnapshot> testObserver = RxFirestore
+            .getDocument(documentReference, executor)
+            .test();
+
+        completeListener.getValue().onComplete(documentSnapshotTask);
+
+        verify(documentSnapshotTask, never()).addOnSuccessListener(any(OnSuccessListener.class));
+        verify(documentSnapshotTask, never()).addOnSuccessListener(eq(executor), any(OnSuccessListener.class));
+
+        testObserver
+            .assertNoErrors()
+            .assertValueCount(1)
+            .assertValueSet(Collections.singletonList(documentSnapshot))
+            .assertComplete();
+    }
+
+    @Test
+    public void testDeleteDocumentOnPluginExecutor() {
+        RxFirebasePlugins.setCallbackExecutor(executor);
+
+        RxFirestore.deleteDocument(documentReference)
+            .test();
+
+        verify(mockVoidTask).addOnCompleteListener(eq(executor), any(OnCompleteListener.class));
+        verify(mockVoidTask, never()).addOnSuccessListener(eq(executor), any(OnSuccessListener.class));
+        verify(mockVoidTask, never()).addOnSuccessListener(any(OnSuccessListener.class));
+    }
+
     @Test
     public void testGetEmptyDocument() {
         TestObserver<DocumentSnapshot> testObserver = RxFirestore
@@ -399,6 +499,718 @@ public class RxFirestoreTest {
     }
 
 
+    @Test
+    public void testObserveQueryChanges() {
+        TestSubscriber<RxFirestoreChangeSet<String>> testObserver = RxFirestore
+            .observeQueryChanges(queryReference, new Function<DocumentSnapshot, String>() {
+                @Override
+                public String apply(DocumentSnapshot documentSnapshot) {
+                    return documentSnapshot.getId();
+                }
+            }, Schedulers.trampoline())
+            .test();
+
+        ArgumentCaptor<EventListener<QuerySnapshot>> listener = ArgumentCaptor.forClass(EventListener.class);
+        verify(queryReference).addSnapshotListener(eq(MetadataChanges.EXCLUDE), listener.capture());
+
+        List<DocumentChange> initialChanges = Arrays.asList(
+            documentChange(DocumentChange.Type.ADDED, "a", -1, 0),
+            documentChange(DocumentChange.Type.ADDED, "b", -1, 1),
+            documentChange(DocumentChange.Type.ADDED, "c", -1, 2));
+        QuerySnapshot initial = mock(QuerySnapshot.class);
+        when(initial.getDocumentChanges()).thenReturn(initialChanges);
+        listener.getValue().onEvent(initial, null);
+
+        List<DocumentChange> updateChanges = Arrays.asList(
+            documentChange(DocumentChange.Type.REMOVED, "a", 0, -1),
+            documentChange(DocumentChange.Type.MODIFIED, "c", 1, 0));
+        QuerySnapshot update = mock(QuerySnapshot.class);
+        when(update.getDocumentChanges()).thenReturn(updateChanges);
+        listener.getValue().onEvent(update, null);
+
+        testObserver.assertNoErrors()
+            .assertValueCount(2)
+            .assertNotComplete();
+        assertEquals(Arrays.asList("a", "b", "c"), testObserver.values().get(0).getItems());
+        RxFirestoreChangeSet<String> changeSet = testObserver.values().get(1);
+        assertEquals(Arrays.asList("c", "b"), changeSet.getItems());
+        assertEquals(2, changeSet.getChanges().size());
+        assertTrue(changeSet.getChanges().get(1).isMove());
+    }
+
+    private DocumentChange documentChange(DocumentChange.Type type, String id, int oldIndex, int newIndex) {
+        QueryDocumentSnapshot document = mock(QueryDocumentSnapshot.class);
+        when(document.getId()).thenReturn(id);
+        DocumentChange documentChange = mock(DocumentChange.class);
+        when(documentChange.getType()).thenReturn(type);
+        when(documentChange.getDocument()).thenReturn(document);
+        when(documentChange.getOldIndex()).thenReturn(oldIndex);
+        when(documentChange.getNewIndex()).thenReturn(newIndex);
+        return documentChange;
+    }
+
+    @Test
+    public void testGetPagesLoadsOnRequest() {
+        Query secondPageQuery = setupPages(queryReference);
+
+        TestSubscriber<List<DocumentSnapshot>> testObserver = RxFirestore
+            .getPages(queryReference, 2)
+            .test(0);
+        verify(queryReference, never()).limit(2);
+
+        testObserver.request(1);
+        testObserver.assertValueCount(1)
+            .assertNotComplete();
+        verify(secondPageQuery, never()).limit(2);
+
+        testObserver.request(1);
+        testObserver.assertNoErrors()
+            .assertValueCount(2)
+            .assertValueAt(1, Collections.singletonList(emptyDocumentSnapshot))
+            .assertComplete();
+    }
+
+    @Test
+    public void testGetPagesPrefetchesNextPage() {
+        Query secondPageQuery = setupPages(queryReference);
+
+        TestSubscriber<List<DocumentSnapshot>> testObserver = RxFirestore
+            .getPages(queryReference, 2, new Function<DocumentSnapshot, DocumentSnapshot>() {
+                @Override
+                public DocumentSnapshot apply(DocumentSnapshot documentSnapshot) {
+                    return documentSnapshot;
+                }
+            }, true)
+            .test(1);
+
+        testObserver.assertValueCount(1)
+            .assertNotComplete();
+        verify(secondPageQuery).limit(2);
+    }
+
+    @Test
+    public void testScanCollection() {
+        Query orderedById = mock(Query.class);
+        when(collectionReference.orderBy(any(FieldPath.class))).thenReturn(orderedById);
+        setupPages(orderedById);
+
+        TestSubscriber<DocumentSnapshot> testObserver = RxFirestore
+            .scanCollection(collectionReference, 2)
+            .test();
+
+        testObserver.assertNoErrors()
+            .assertValues(documentSnapshot, documentSnapshot, emptyDocumentSnapshot)
+            .assertComplete();
+    }
+
+    @Test
+    public void testScanEmptyCollection() {
+        Query orderedById = mock(Query.class);
+        Query firstPage = mock(Query.class);
+        Task<QuerySnapshot> emptyPageTask = completedTask(Collections.<DocumentSnapshot>emptyList());
+        when(emptyCollectionReference.orderBy(any(FieldPath.class))).thenReturn(orderedById);
+        when(orderedById.limit(2)).thenReturn(firstPage);
+        when(firstPage.get()).thenReturn(emptyPageTask);
+
+        RxFirestore.scanCollection(emptyCollectionReference, 2)
+            .test()
+            .assertNoValues()
+            .assertComplete();
+    }
+
+    @Test
+    public void testScanCollectionPartitioned() {
+        Query orderedById = mock(Query.class);
+        Query lowerPartition = mock(Query.class);
+        Query upperPartition = mock(Query.class);
+        Query lowerPage = mock(Query.class);
+        Query upperPage = mock(Query.class);
+        Task<QuerySnapshot> lowerTask = completedTask(Collections.singletonList(documentSnapshot));
+        Task<QuerySnapshot> upperTask = completedTask(Collections.singletonList(emptyDocumentSnapshot));
+        when(collectionReference.orderBy(any(FieldPath.class))).thenReturn(orderedById);
+        when(orderedById.whereLessThan(any(FieldPath.class), eq("m"))).thenReturn(lowerPartition);
+        when(orderedById.whereGreaterThanOrEqualTo(any(FieldPath.class), eq("m"))).thenReturn(upperPartition);
+        when(lowerPartition.limit(2)).thenReturn(lowerPage);
+        when(upperPartition.limit(2)).thenReturn(upperPage);
+        when(lowerPage.get()).thenReturn(lowerTask);
+        when(upperPage.get()).thenReturn(upperTask);
+
+        TestSubscriber<DocumentSnapshot> testObserver = RxFirestore
+            .scanCollectionPartitioned(collectionReference, 2, Collections.singletonList("m"), true)
+            .test();
+
+        testObserver.assertNoErrors()
+            .assertValues(documentSnapshot, emptyDocumentSnapshot)
+            .assertComplete();
+        verify(lowerPage).get();
+        verify(upperPage).get();
+    }
+
+    @Test
+    public void testGetDocumentsInInputOrder() {
+        DocumentReference first = documentIn(collectionReference, "a");
+        DocumentReference second = documentIn(collectionReference, "b");
+        DocumentReference missing = documentIn(collectionReference, "c");
+        DocumentSnapshot firstSnapshot = snapshotOf(first);
+        DocumentSnapshot secondSnapshot = snapshotOf(second);
+        Query firstChunk = mock(Query.class);
+        Query secondChunk = mock(Query.class);
+        Task<QuerySnapshot> firstChunkTask = completedTask(Arrays.asList(secondSnapshot, firstSnapshot));
+        Task<QuerySnapshot> secondChunkTask = completedTask(Collections.<DocumentSnapshot>emptyList());
+        when(collectionReference.getPath()).thenReturn("items");
+        when(collectionReference.whereIn(any(FieldPath.class), eq(Arrays.asList("a", "b")))).thenReturn(firstChunk);
+        when(collectionReference.whereIn(any(FieldPath.class), eq(Collections.singletonList("c")))).thenReturn(secondChunk);
+        when(firstChunk.get()).thenReturn(firstChunkTask);
+        when(secondChunk.get()).thenReturn(secondChunkTask);
+
+        TestObserver<List<RxFirestoreDocument>> testObserver = RxFirestore
+            .getDocuments(Arrays.asList(first, second, missing, first), 2, 2)
+            .test();
+
+        testObserver.assertNoErrors()
+            .assertComplete();
+        List<RxFirestoreDocument> documents = testObserver.values().get(0);
+        assertEquals(4, documents.size());
+        assertEquals(firstSnapshot, documents.get(0).getSnapshot());
+        assertEquals(secondSnapshot, documents.get(1).getSnapshot());
+        assertFalse(documents.get(2).exists());
+        assertEquals(missing, documents.get(2).getReference());
+        assertEquals(firstSnapshot, documents.get(3).getSnapshot());
+    }
+
+    @Test
+    public void testFirestoreQueryLiveListensOnlyToNewIds() {
+        DocumentReference first = documentIn(collectionReference, "a");
+        DocumentReference second = documentIn(collectionReference, "b");
+        DocumentReference third = documentIn(collectionReference, "c");
+        DocumentSnapshot firstSnapshot = snapshotOf(first);
+        DocumentSnapshot secondSnapshot = snapshotOf(second);
+        DocumentSnapshot thirdSnapshot = snapshotOf(third);
+        Query firstChunk = mock(Query.class);
+        Query secondChunk = mock(Query.class);
+        QuerySnapshot favorites = mock(QuerySnapshot.class);
+        QuerySnapshot updatedFavorites = mock(QuerySnapshot.class);
+        QuerySnapshot firstChunkSnapshot = mock(QuerySnapshot.class);
+        QuerySnapshot secondChunkSnapshot = mock(QuerySnapshot.class);
+        ListenerRegistration firstChunkRegistration = mock(ListenerRegistration.class);
+        when(favorites.getDocuments()).thenReturn(Arrays.asList(firstSnapshot, secondSnapshot));
+        when(updatedFavorites.getDocuments()).thenReturn(Arrays.asList(secondSnapshot, thirdSnapshot));
+        when(firstChunkSnapshot.getDocuments()).thenReturn(Arrays.asList(firstSnapshot, secondSnapshot));
+        when(secondChunkSnapshot.getDocuments()).thenReturn(Collections.singletonList(thirdSnapshot));
+        when(firstSnapshot.getId()).thenReturn("a");
+        when(secondSnapshot.getId()).thenReturn("b");
+        when(thirdSnapshot.getId()).thenReturn("c");
+        when(collectionReference.getPath()).thenReturn("items");
+        when(collectionReference.document("a")).thenReturn(first);
+        when(collectionReference.document("b")).thenReturn(second);
+        when(collectionReference.document("c")).thenReturn(third);
+        when(collectionReference.whereIn(any(FieldPath.class), eq(Arrays.asList("a", "b")))).thenReturn(firstChunk);
+        when(collectionReference.whereIn(any(FieldPath.class), eq(Collections.singletonList("c")))).thenReturn(secondChunk);
+        when(firstChunk.addSnapshotListener(eq(MetadataChanges.EXCLUDE), any(EventListener.class)))
+            .thenReturn(firstChunkRegistration);
+
+        TestSubscriber<List<RxFirestoreDocument>> testObserver = RxFirestoreQuery.getInstance()
+            .filterByIds(collectionReference, queryReference)
+            .observe()
+            .test();
+
+        ArgumentCaptor<EventListener<QuerySnapshot>> listener = ArgumentCaptor.forClass(EventListener.class);
+        verify(queryReference).addSnapshotListener(eq(MetadataChanges.EXCLUDE), listener.capture());
+        listener.getValue().onEvent(favorites, null);
+        ArgumentCaptor<EventListener<QuerySnapshot>> firstChunkListener = ArgumentCaptor.forClass(EventListener.class);
+        verify(firstChunk).addSnapshotListener(eq(MetadataChanges.EXCLUDE), firstChunkListener.capture());
+        firstChunkListener.getValue().onEvent(firstChunkSnapshot, null);
+        listener.getValue().onEvent(updatedFavorites, null);
+        ArgumentCaptor<EventListener<QuerySnapshot>> secondChunkListener = ArgumentCaptor.forClass(EventListener.class);
+        verify(secondChunk).addSnapshotListener(eq(MetadataChanges.EXCLUDE), secondChunkListener.capture());
+        secondChunkListener.getValue().onEvent(secondChunkSnapshot, null);
+
+        testObserver.assertNoErrors()
+            .assertValueCount(2)
+            .assertNotComplete();
+        List<RxFirestoreDocument> documents = testObserver.values().get(1);
+        assertEquals(secondSnapshot, documents.get(0).getSnapshot());
+        assertEquals(thirdSnapshot, documents.get(1).getSnapshot());
+        verify(firstChunk, times(1)).addSnapshotListener(eq(MetadataChanges.EXCLUDE), any(EventListener.class));
+        verify(firstChunkRegistration, never()).remove();
+    }
+
+    @Test
+    public void testFirestoreQueryLiveEmitsCreatedAndRemovedDocuments() {
+        DocumentReference first = documentIn(collectionReference, "a");
+        DocumentReference second = documentIn(collectionReference, "b");
+        DocumentSnapshot firstSnapshot = snapshotOf(first);
+        DocumentSnapshot secondSnapshot = snapshotOf(second);
+        DocumentSnapshot secondChangedSnapshot = snapshotOf(second);
+        Query chunk = mock(Query.class);
+        QuerySnapshot favorites = mock(QuerySnapshot.class);
+        QuerySnapshot withoutSecond = mock(QuerySnapshot.class);
+        QuerySnapshot withSecond = mock(QuerySnapshot.class);
+        QuerySnapshot withChangedSecond = mock(QuerySnapshot.class);
+        QuerySnapshot noFavorites = mock(QuerySnapshot.class);
+        ListenerRegistration chunkRegistration = mock(ListenerRegistration.class);
+        when(favorites.getDocuments()).thenReturn(Arrays.asList(firstSnapshot, secondSnapshot));
+        when(noFavorites.getDocuments()).thenReturn(Collections.<DocumentSnapshot>emptyList());
+        when(withoutSecond.getDocuments()).thenReturn(Collections.singletonList(firstSnapshot));
+        when(withSecond.getDocuments()).thenReturn(Arrays.asList(firstSnapshot, secondSnapshot));
+        when(withChangedSecond.getDocuments()).thenReturn(Arrays.asList(firstSnapshot, secondChangedSnapshot));
+        when(firstSnapshot.getId()).thenReturn("a");
+        when(secondSnapshot.getId()).thenReturn("b");
+        when(collectionReference.getPath()).thenReturn("items");
+        when(collectionReference.document("a")).thenReturn(first);
+        when(collectionReference.document("b")).thenReturn(second);
+        when(collectionReference.whereIn(any(FieldPath.class), eq(Arrays.asList("a", "b")))).thenReturn(chunk);
+        when(chunk.addSnapshotListener(eq(MetadataChanges.EXCLUDE), any(EventListener.class)))
+            .thenReturn(chunkRegistration);
+
+        TestSubscriber<List<RxFirestoreDocument>> testObserver = RxFirestoreQuery.getInstance()
+            .filterByIds(collectionReference, queryReference)
+            .observe()
+            .test();
+
+        ArgumentCaptor<EventListener<QuerySnapshot>> listener = ArgumentCaptor.forClass(EventListener.class);
+        verify(queryReference).addSnapshotListener(eq(MetadataChanges.EXCLUDE), listener.capture());
+        listener.getValue().onEvent(favorites, null);
+        ArgumentCaptor<EventListener<QuerySnapshot>> chunkListener = ArgumentCaptor.forClass(EventListener.class);
+        verify(chunk).addSnapshotListener(eq(MetadataChanges.EXCLUDE), chunkListener.capture());
+        chunkListener.getValue().onEvent(withoutSecond, null);
+        chunkListener.getValue().onEvent(withSecond, null);
+        chunkListener.getValue().onEvent(withChangedSecond, null);
+
+        testObserver.assertNoErrors()
+            .assertValueCount(3)
+            .assertNotComplete();
+        assertNull(testObserver.values().get(0).get(1).getSnapshot());
+        assertEquals(secondSnapshot, testObserver.values().get(1).get(1).getSnapshot());
+        assertEquals(secondChangedSnapshot, testObserver.values().get(2).get(1).getSnapshot());
+
+        listener.getValue().onEvent(noFavorites, null);
+
+        verify(chunkRegistration).remove();
+        testObserver.assertValueCount(4);
+        assertTrue(testObserver.values().get(3).isEmpty());
+    }
+
+    @Test
+    public void testWriteCoalescerMergesUpdates() {
+        TestScheduler scheduler = new TestScheduler();
+        RxFirestoreWriteCoalescer coalescer = new RxFirestoreWriteCoalescer(100, TimeUnit.MILLISECONDS, scheduler);
+        Map<String, Object> merged = new HashMap<>();
+        merged.put("position", 3);
+        merged.put("typing", true);
+        when(documentReference.getPath()).thenReturn("rooms/room");
+        when(documentReference.update(merged)).thenReturn(mockVoidTask);
+
+        TestObserver<Void> first = coalescer.updateDocument(documentReference, "position", 1).test();
+        TestObserver<Void> second = coalescer.updateDocument(documentReference, "typing", true).test();
+        TestObserver<Void> third = coalescer.updateDocument(documentReference, "position", 3).test();
+        scheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+
+        verify(documentReference).update(merged);
+        testOnCompleteListener.getValue().onComplete(mockVoidTask);
+        first.assertComplete();
+        second.assertComplete();
+        third.assertComplete();
+    }
+
+    @Test
+    public void testWriteCoalescerSendsConflictingUpdatesInOrder() {
+        TestScheduler scheduler = new TestScheduler();
+        RxFirestoreWriteCoalescer coalescer = new RxFirestoreWriteCoalescer(100, TimeUnit.MILLISECONDS, scheduler);
+        Map<String, Object> parent = Collections.<String, Object>singletonMap("a", 1);
+        Map<String, Object> child = Collections.<String, Object>singletonMap("a.b", 2);
+        when(documentReference.getPath()).thenReturn("rooms/room");
+        when(documentReference.update(parent)).thenReturn(mockVoidTask);
+        when(documentReference.update(child)).thenReturn(mockVoidTask);
+
+        coalescer.updateDocument(documentReference, parent).test();
+        coalescer.updateDocument(documentReference, child).test();
+        coalescer.flush();
+        scheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+
+        InOrder inOrder = inOrder(documentReference);
+        inOrder.verify(documentReference).update(parent);
+        inOrder.verify(documentReference).update(child);
+        verify(documentReference, times(2)).update(any(Map.class));
+    }
+
+    @Test
+    public void testWriteCoalescerFlushWaitsForUpdateBeingSent() throws InterruptedException {
+        final TestScheduler scheduler = new TestScheduler();
+        final RxFirestoreWriteCoalescer coalescer =
+            new RxFirestoreWriteCoalescer(100, TimeUnit.MILLISECONDS, scheduler);
+        final Map<String, Object> older = Collections.<String, Object>singletonMap("position", 1);
+        final Map<String, Object> newer = Collections.<String, Object>singletonMap("position", 2);
+        final CountDownLatch sending = new CountDownLatch(1);
+        final CountDownLatch sent = new CountDownLatch(1);
+        when(documentReference.getPath()).thenReturn("rooms/room");
+        when(documentReference.update(older)).thenAnswer(new Answer<Task<Void>>() {
+            @Override
+            public Task<Void> answer(InvocationOnMock invocation) throws InterruptedException {
+                sending.countDown();
+                sent.await(5, TimeUnit.SECONDS);
+                return mockVoidTask;
+            }
+        });
+        when(documentReference.update(newer)).thenReturn(mockVoidTask);
+
+        coalescer.updateDocument(documentReference, older).test();
+        Thread window = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                scheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+            }
+        });
+        window.start();
+        assertTrue(sending.await(5, TimeUnit.SECONDS));
+        Thread flush = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                coalescer.updateDocument(documentReference, newer).test();
+                coalescer.flush();
+            }
+        });
+        flush.start();
+        flush.join(200);
+        verify(documentReference, never()).update(newer);
+        sent.countDown();
+        window.join(5000);
+        flush.join(5000);
+
+        InOrder inOrder = inOrder(documentReference);
+        inOrder.verify(documentReference).update(older);
+        inOrder.verify(documentReference).update(newer);
+    }
+
+    @Test
+    public void testShardedCounterIncrementsShardOfClient() {
+        RxFirestoreShardedCounter counter = new RxFirestoreShardedCounter(collectionReference, 4);
+        String clientId = "user";
+        String shardId = String.valueOf((clientId.hashCode() & Integer.MAX_VALUE) % 4);
+        DocumentReference shard = documentIn(collectionReference, shardId);
+        when(collectionReference.document(shardId)).thenReturn(shard);
+        when(shard.set(any(Map.class), eq(SetOptions.merge()))).thenReturn(mockVoidTask);
+
+        TestObserver<Void> testObserver = counter.increment(1, clientId).test();
+
+        verify(shard).set(any(Map.class), eq(SetOptions.merge()));
+        testOnCompleteListener.getValue().onComplete(mockVoidTask);
+        testObserver.assertComplete();
+    }
+
+    @Test
+    public void testShardedCounterSumsShards() {
+        DocumentSnapshot firstShard = mock(DocumentSnapshot.class);
+        DocumentSnapshot secondShard = mock(DocumentSnapshot.class);
+        when(firstShard.getLong(RxFirestoreShardedCounter.COUNT_FIELD)).thenReturn(3L);
+        when(secondShard.getLong(RxFirestoreShardedCounter.COUNT_FIELD)).thenReturn(4L);
+        Task<QuerySnapshot> shardsTask = completedTask(Arrays.asList(firstShard, secondShard));
+        when(collectionReference.get()).thenReturn(shardsTask);
+
+        new RxFirestoreShardedCounter(collectionReference, 2).getCount()
+            .test()
+            .assertValue(7L);
+    }
+
+    @Test
+    public void testIncrementAccumulatorBatchesDocuments() {
+        FirebaseFirestore firestore = mock(FirebaseFirestore.class);
+        WriteBatch batch = mock(WriteBatch.class);
+        when(firestore.batch()).thenReturn(batch);
+        when(batch.commit()).thenReturn(mockVoidTask);
+        DocumentReference first = documentIn(collectionReference, "first");
+        DocumentReference second = documentIn(collectionReference, "second");
+        RxFirestoreIncrementAccumulator accumulator =
+            new RxFirestoreIncrementAccumulator(firestore, 1, TimeUnit.MINUTES, 100, new TestScheduler());
+
+        accumulator.increment(first, "views", 1);
+        accumulator.increment(first, "likes", 1);
+        accumulator.increment(second, "views", 1);
+        accumulator.increment(first, "views", 1);
+        TestObserver<Void> testObserver = accumulator.flush().test();
+
+        ArgumentCaptor<Map> fields = ArgumentCaptor.forClass(Map.class);
+        verify(batch).set(eq(first), fields.capture(), eq(SetOptions.merge()));
+        assertEquals(2, fields.getValue().size());
+        verify(batch).set(eq(second), any(Map.class), eq(SetOptions.merge()));
+        verify(firestore).batch();
+        testOnCompleteListener.getValue().onComplete(mockVoidTask);
+        testObserver.assertComplete();
+    }
+
+    @Test
+    public void testIncrementAccumulatorKeepsOnlySumsOfFailedBatch() {
+        FirebaseFirestore firestore = mock(FirebaseFirestore.class);
+        WriteBatch firstBatch = mock(WriteBatch.class);
+        WriteBatch secondBatch = mock(WriteBatch.class);
+        WriteBatch retryBatch = mock(WriteBatch.class);
+        Task<Void> committed = completedTask((Void) null);
+        Task<Void> failed = failedTask(new Exception("unavailable"));
+        when(firestore.batch()).thenReturn(firstBatch, secondBatch, retryBatch);
+        when(firstBatch.commit()).thenReturn(committed);
+        when(secondBatch.commit()).thenReturn(failed);
+        when(retryBatch.commit()).thenReturn(committed);
+        List<DocumentReference> documents = new ArrayList<>();
+        for (int i = 0; i <= RxFirestoreIncrementAccumulator.BATCH_LIMIT; i++) {
+            documents.add(documentIn(collectionReference, "doc" + i));
+        }
+        RxFirestoreIncrementAccumulator accumulator = new RxFirestoreIncrementAccumulator(firestore, 1,
+            TimeUnit.MINUTES, Integer.MAX_VALUE, new TestScheduler());
+
+        for (DocumentReference document : documents) {
+            accumulator.increment(document, "views", 1);
+        }
+        accumulator.flush().test().assertError(Exception.class);
+
+        verify(firstBatch, times(RxFirestoreIncrementAccumulator.BATCH_LIMIT))
+            .set(any(DocumentReference.class), any(Map.class), eq(SetOptions.merge()));
+        verify(secondBatch).set(any(DocumentReference.class), any(Map.class), eq(SetOptions.merge()));
+
+        accumulator.flush().test().assertComplete();
+
+        ArgumentCaptor<DocumentReference> retried = ArgumentCaptor.forClass(DocumentReference.class);
+        verify(retryBatch).set(retried.capture(), any(Map.class), eq(SetOptions.merge()));
+        verify(secondBatch).set(eq(retried.getValue()), any(Map.class), eq(SetOptions.merge()));
+    }
+
+    @Test
+    public void testRunTransactionForResultCountsAttempts() {
+        FirebaseFirestore firestore = mock(FirebaseFirestore.class);
+        final Transaction transaction = mock(Transaction.class);
+        doAnswer(new Answer<Task<Object>>() {
+            @Override
+            public Task<Object> answer(InvocationOnMock invocation) throws Throwable {
+                Transaction.Function<Object> function = invocation.getArgument(0);
+                function.apply(transaction);
+                return completedTask(function.apply(transaction));
+            }
+        }).when(firestore).runTransaction(any(Transaction.Function.class));
+
+        TestObserver<RxFirestoreTransactionResult<String>> testObserver = RxFirestore.runTransactionForResult(firestore,
+            new Transaction.Function<String>() {
+                @Override
+                public String apply(Transaction transaction) {
+                    return "value";
+                }
+            }).test();
+
+        testObserver.assertValueCount(1);
+        assertEquals("value", testObserver.values().get(0).getValue());
+        assertEquals(2, testObserver.values().get(0).getAttempts());
+    }
+
+    @Test
+    public void testRunTransactionForResultRetriesAborted() {
+        TestScheduler scheduler = new TestScheduler();
+        FirebaseFirestore firestore = mock(FirebaseFirestore.class);
+        final Transaction transaction = mock(Transaction.class);
+        final FirebaseFirestoreException aborted = mock(FirebaseFirestoreException.class);
+        when(aborted.getCode()).thenReturn(FirebaseFirestoreException.Code.ABORTED);
+        final Task<Object> abortedTask = mock(Task.class);
+        when(abortedTask.isComplete()).thenReturn(true);
+        when(abortedTask.getException()).thenReturn(aborted);
+        doAnswer(new Answer<Task<Object>>() {
+            private int calls;
+
+            @Override
+            public Task<Object> answer(InvocationOnMock invocation) throws Throwable {
+                Object result = invocation.<Transaction.Function<Object>>getArgument(0).apply(transaction);
+                return calls++ == 0 ? abortedTask : completedTask(result);
+            }
+        }).when(firestore).runTransaction(any(Transaction.Function.class));
+
+        TestObserver<RxFirestoreTransactionResult<Integer>> testObserver = RxFirestore.runTransactionForResult(firestore,
+            Collections.<DocumentReference>emptyList(),
+            new Transaction.Function<Integer>() {
+                @Override
+                public Integer apply(Transaction transaction) {
+                    return 1;
+                }
+            },
+            RxFirebaseBackoffPolicy.exponential(2, 100, 1000, TimeUnit.MILLISECONDS, scheduler)).test();
+
+        testObserver.assertNoValues().assertNoErrors();
+        scheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+        testObserver.assertValueCount(1);
+        assertEquals(2, testObserver.values().get(0).getAttempts());
+    }
+
+    @Test
+    public void testWriteAcknowledgedSharesListener() {
+        DocumentReference document = mock(DocumentReference.class);
+        ArgumentCaptor<EventListener> listener = ArgumentCaptor.forClass(EventListener.class);
+        when(document.addSnapshotListener(eq(MetadataChanges.INCLUDE), listener.capture())).thenReturn(registration);
+        SnapshotMetadata pending = mock(SnapshotMetadata.class);
+        when(pending.hasPendingWrites()).thenReturn(true);
+        SnapshotMetadata acknowledged = mock(SnapshotMetadata.class);
+        DocumentSnapshot pendingSnapshot = mock(DocumentSnapshot.class);
+        when(pendingSnapshot.getMetadata()).thenReturn(pending);
+        DocumentSnapshot acknowledgedSnapshot = mock(DocumentSnapshot.class);
+        when(acknowledgedSnapshot.getMetadata()).thenReturn(acknowledged);
+
+        TestObserver<Void> firstWriter = RxFirestoreOfflineHandler.observeWriteAcknowledged(document).test();
+        TestObserver<Void> secondWriter = RxFirestoreOfflineHandler.observeWriteAcknowledged(document).test();
+
+        verify(document).addSnapshotListener(eq(MetadataChanges.INCLUDE), any(EventListener.class));
+        listener.getValue().onEvent(pendingSnapshot, null);
+        firstWriter.assertNotComplete();
+        listener.getValue().onEvent(acknowledgedSnapshot, null);
+        firstWriter.assertComplete();
+        secondWriter.assertComplete();
+        verify(registration).remove();
+
+        RxFirestoreOfflineHandler.observeWriteAcknowledged(document).test();
+        verify(document, times(2)).addSnapshotListener(eq(MetadataChanges.INCLUDE), any(EventListener.class));
+    }
+
+    @Test
+    public void testWriteAcknowledgedJoiningWriterWaitsForItsWrite() {
+        DocumentReference document = mock(DocumentReference.class);
+        ArgumentCaptor<EventListener> listener = ArgumentCaptor.forClass(EventListener.class);
+        when(document.addSnapshotListener(eq(MetadataChanges.INCLUDE), listener.capture())).thenReturn(registration);
+        SnapshotMetadata pending = mock(SnapshotMetadata.class);
+        when(pending.hasPendingWrites()).thenReturn(true);
+        SnapshotMetadata acknowledged = mock(SnapshotMetadata.class);
+        DocumentSnapshot pendingSnapshot = mock(DocumentSnapshot.class);
+        when(pendingSnapshot.getMetadata()).thenReturn(pending);
+        DocumentSnapshot acknowledgedSnapshot = mock(DocumentSnapshot.class);
+        when(acknowledgedSnapshot.getMetadata()).thenReturn(acknowledged);
+
+        TestObserver<Void> firstWriter = RxFirestoreOfflineHandler.observeWriteAcknowledged(document).test();
+        listener.getValue().onEvent(pendingSnapshot, null);
+        TestObserver<Void> secondWriter = RxFirestoreOfflineHandler.observeWriteAcknowledged(document).test();
+        listener.getValue().onEvent(acknowledgedSnapshot, null);
+
+        firstWriter.assertComplete();
+        secondWriter.assertNotComplete();
+        verify(registration, never()).remove();
+        listener.getValue().onEvent(pendingSnapshot, null);
+        secondWriter.assertNotComplete();
+        listener.getValue().onEvent(acknowledgedSnapshot, null);
+        secondWriter.assertComplete();
+        verify(registration).remove();
+        verify(document).addSnapshotListener(eq(MetadataChanges.INCLUDE), any(EventListener.class));
+    }
+
+    @Test
+    public void testGetDocumentFromSource() {
+        Task<DocumentSnapshot> cacheTask = completedTask(documentSnapshot);
+        when(documentReference.get(Source.CACHE)).thenReturn(cacheTask);
+
+        RxFirestore.getDocument(documentReference, Source.CACHE)
+            .test()
+            .assertValue(documentSnapshot);
+
+        verify(documentReference, never()).get();
+    }
+
+    @Test
+    public void testCacheThenServerSkipsSameData() {
+        DocumentSnapshot cached = snapshotWithData(Collections.<String, Object>singletonMap("name", "cached"));
+        DocumentSnapshot fetched = snapshotWithData(Collections.<String, Object>singletonMap("name", "cached"));
+        Task<DocumentSnapshot> cacheTask = completedTask(cached);
+        Task<DocumentSnapshot> serverTask = completedTask(fetched);
+        when(documentReference.get(Source.CACHE)).thenReturn(cacheTask);
+        when(documentReference.get(Source.SERVER)).thenReturn(serverTask);
+
+        RxFirestore.getDocumentFromCacheThenServer(documentReference)
+            .test()
+            .assertValues(cached)
+            .assertComplete();
+    }
+
+    @Test
+    public void testCacheThenServerEmitsChangedData() {
+        DocumentSnapshot cached = snapshotWithData(Collections.<String, Object>singletonMap("name", "cached"));
+        DocumentSnapshot fetched = snapshotWithData(Collections.<String, Object>singletonMap("name", "fetched"));
+        Task<DocumentSnapshot> cacheTask = completedTask(cached);
+        Task<DocumentSnapshot> serverTask = completedTask(fetched);
+        when(documentReference.get(Source.CACHE)).thenReturn(cacheTask);
+        when(documentReference.get(Source.SERVER)).thenReturn(serverTask);
+
+        RxFirestore.getDocumentFromCacheThenServer(documentReference)
+            .test()
+            .assertValues(cached, fetched)
+            .assertComplete();
+    }
+
+    @Test
+    public void testCacheThenServerCompletesOffline() {
+        DocumentSnapshot cached = snapshotWithData(Collections.<String, Object>singletonMap("name", "cached"));
+        FirebaseFirestoreException unavailable = mock(FirebaseFirestoreException.class);
+        when(unavailable.getCode()).thenReturn(FirebaseFirestoreException.Code.UNAVAILABLE);
+        Task<QuerySnapshot> cacheTask = completedTask(Collections.singletonList(cached));
+        Task<QuerySnapshot> serverTask = mock(Task.class);
+        when(serverTask.isComplete()).thenReturn(true);
+        when(serverTask.getException()).thenReturn(unavailable);
+        when(queryReference.get(Source.CACHE)).thenReturn(cacheTask);
+        when(queryReference.get(Source.SERVER)).thenReturn(serverTask);
+
+        TestSubscriber<QuerySnapshot> testObserver = RxFirestore.getCollectionFromCacheThenServer(queryReference).test();
+
+        testObserver.assertValueCount(1).assertComplete();
+        assertEquals(Collections.singletonList(cached), testObserver.values().get(0).getDocuments());
+    }
+
+    private DocumentReference documentIn(CollectionReference collection, String id) {
+        DocumentReference document = mock(DocumentReference.class);
+        when(document.getParent()).thenReturn(collection);
+        when(document.getId()).thenReturn(id);
+        when(document.getPath()).thenReturn("items/" + id);
+        return document;
+    }
+
+    private DocumentSnapshot snapshotOf(DocumentReference document) {
+        DocumentSnapshot snapshot = mock(DocumentSnapshot.class);
+        when(snapshot.getReference()).thenReturn(document);
+        return snapshot;
+    }
+
+    private DocumentSnapshot snapshotWithData(Map<String, Object> data) {
+        DocumentSnapshot snapshot = mock(DocumentSnapshot.class);
+        when(snapshot.exists()).thenReturn(true);
+        when(snapshot.getData()).thenReturn(data);
+        return snapshot;
+    }
+
+    private Query setupPages(Query queryReference) {
+        Query firstPageQuery = mock(Query.class);
+        Query secondPageQuery = mock(Query.class);
+        Query secondPageLimitedQuery = mock(Query.class);
+        Task<QuerySnapshot> firstPageTask = completedTask(Arrays.asList(documentSnapshot, documentSnapshot));
+        Task<QuerySnapshot> secondPageTask = completedTask(Collections.singletonList(emptyDocumentSnapshot));
+        when(queryReference.limit(2)).thenReturn(firstPageQuery);
+        when(firstPageQuery.get()).thenReturn(firstPageTask);
+        when(queryReference.startAfter(documentSnapshot)).thenReturn(secondPageQuery);
+        when(secondPageQuery.limit(2)).thenReturn(secondPageLimitedQuery);
+        when(secondPageLimitedQuery.get()).thenReturn(secondPageTask);
+        return secondPageQuery;
+    }
+
+    private Task<QuerySnapshot> completedTask(List<DocumentSnapshot> documents) {
+        QuerySnapshot snapshot = mock(QuerySnapshot.class);
+        when(snapshot.getDocuments()).thenReturn(documents);
+        return completedTask(snapshot);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Task<T> completedTask(T result) {
+        Task<T> task = mock(Task.class);
+        when(task.isComplete()).thenReturn(true);
+        when(task.isSuccessful()).thenReturn(true);
+        when(task.getResult()).thenReturn(result);
+        return task;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Task<T> failedTask(Exception exception) {
+        Task<T> task = mock(Task.class);
+        when(task.isComplete()).thenReturn(true);
+        when(task.isSuccessful()).thenReturn(false);
+        when(task.getException()).thenReturn(exception);
+        return task;
+    }
+
     class ChildDocData {
         int id;
         String str;